@@ -0,0 +1,105 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+
+# Run each test case under every mode of the back end and optimizer; all of
+# them must print what result/NAME.result says.
+
+import os
+import subprocess
+import sys
+import re
+
+filter = re.compile('^(SPIM Version|Copyright|All Rights|.*copyright|Loaded:).*(\n|$)', re.M)
+
+# Where a trap happens depends on the code of each mode
+trap_pc = re.compile('PC=0x[0-9a-fA-F]+')
+
+modes = [
+    [],
+    ['-ra', 'color'],
+    ['-ra', 'linear'],
+    ['-O'],
+    ['-O', '-ra', 'color'],
+    ['-O', '-ra', 'linear'],
+    ['-O', '-j', '4'],
+    ['-O', '-fno-bce'],
+    ['-O', '-fno-sccp', '-fno-gvn', '-fno-licm'],
+    ['-O', '-fno-dce'],
+    ['-O', '-fno-copyprop', '-fno-coalesce'],
+    ['-O', '-fno-peephole'],
+    ['-O', '-fno-slots'],
+]
+
+def read_txt_file(filename):
+    with open(filename,'r') as f:
+        txt = f.read().strip()
+    # Python should be able to do it automatically, but just in case...
+    txt = txt.replace('\r','')
+    # Remove version/copyright info of SPIM
+    txt = filter.sub('',txt)
+    txt = trap_pc.sub('PC=?',txt)
+    return txt
+
+def get_spim():
+    '''Return (dir, exe)'''
+    if os.name == 'nt': # Windows
+        spim = 'spim.exe'
+    elif sys.platform == 'darwin': # Mac OS (FIXME: NOT TESTED! PLEASE MAKE CHANGES TO THIS SCRIPT IF NECESSARY)
+        spim = './spim.mac'
+    elif sys.platform.startswith('linux'): # Linux (x86/amd64)
+        spim = './spim.linux'
+    else:
+        print ("What the hell OS are you using?!!")
+        sys.exit(1)
+    return os.path.join('..', '..', 'tools', 'spim'), spim
+
+if __name__ == '__main__':
+    decaf_jar = os.path.join('..','..','result','decaf.jar')
+    if not os.path.exists('output'):
+        os.mkdir('output')
+    names = sys.argv[1:]
+    if not names:
+        names = sorted(os.listdir('.'))
+    for name in names:
+        bname,ext = os.path.splitext(name)
+        if ext != '.decaf':
+            continue
+        reference = read_txt_file(os.path.join('result',bname+'.result'))
+        failed = []
+        for mode in modes:
+            mname = bname + ''.join(mode).replace('-', '.')
+            # Compile, redirecting stdout/stderr to output/mname.s
+            cmd = ['java', '-jar', decaf_jar, '-l', '4'] + mode + [name]
+            code = subprocess.call(cmd,
+                    stdout = open(os.path.join('output',mname+'.s'), 'w'),
+                    stderr = subprocess.STDOUT)
+
+            fw = open(os.path.join('output',mname+'.result'), 'w+')
+            if code == 0: # Run SPIM
+                spim_dir, spim_exe = get_spim()
+                # On Windows, argv[0] is relative to original dir;
+                # On Unix, argv[0] is relative to cwd (spim_dir). So we use absolute path here.
+                spim_exe = os.path.abspath(os.path.join(spim_dir, spim_exe))
+                asm_abspath = os.path.abspath(os.path.join('output', mname + '.s'))
+                subprocess.call(
+                        [spim_exe, asm_abspath],
+                        cwd = spim_dir,
+                        stdout = fw,
+                        stderr = subprocess.STDOUT)
+            fw.close()
+
+            # Check the result
+            our_result = read_txt_file(os.path.join('output',mname+'.result'))
+            if reference != our_result:
+                failed.append(' '.join(mode) or 'default')
+        if not failed:
+            info = 'OK :)'
+        else:
+            info = 'ERROR! ' + ', '.join(failed)
+        print ('{0:<20}{1}'.format(name,info))
+    if os.name == 'nt':
+        print ('Press Enter to continue...')
+        try:
+            raw_input() # Python 2
+        except:
+            input() # Python 3
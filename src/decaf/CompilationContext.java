@@ -0,0 +1,114 @@
+package decaf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.backend.OffsetCounter;
+import decaf.dataflow.IDAllocator;
+import decaf.error.DecafError;
+import decaf.scope.ScopeStack;
+import decaf.tac.Label;
+import decaf.tac.Temp;
+
+/**
+ * State of one compilation: the options, the errors found, the scope stack,
+ * and the counters that number temps, labels and TACs and lay out offsets.
+ *
+ * Every phase takes it from the one before instead of from a global, so two
+ * compilations in one process do not share anything, and each one numbers
+ * its temps and labels the same way every time.
+ */
+public final class CompilationContext {
+
+    private Option option;
+
+    private List<DecafError> errors = new ArrayList<DecafError>();
+
+    private ScopeStack table = new ScopeStack();
+
+    private int tempCount = 0;
+
+    private Map<Integer, Temp> constTempPool = new HashMap<Integer, Temp>();
+
+    private int labelCount = 0;
+
+    private IDAllocator tacIds = new IDAllocator();
+
+    private OffsetCounter[] offsetCounters;
+
+    public CompilationContext(Option option) {
+        this.option = option;
+        OffsetCounter.Kind[] kinds = OffsetCounter.Kind.values();
+        offsetCounters = new OffsetCounter[kinds.length];
+        for (OffsetCounter.Kind kind : kinds) {
+            offsetCounters[kind.ordinal()] = new OffsetCounter(kind);
+        }
+    }
+
+    public Option getOption() {
+        return option;
+    }
+
+    public void issueError(DecafError error) {
+        errors.add(error);
+    }
+
+    public List<DecafError> getErrors() {
+        return errors;
+    }
+
+    public ScopeStack getTable() {
+        return table;
+    }
+
+    public Temp createTempI4() {
+        return Temp.createTempI4(tempCount++);
+    }
+
+    /**
+     * @return the number of temps created so far
+     */
+    public int getTempCount() {
+        return tempCount;
+    }
+
+    /**
+     * @return the constant temp of `value`, the same one for every call;
+     *         functions compiled at the same time may ask for it
+     */
+    public synchronized Temp createConstTemp(int value) {
+        Temp temp = constTempPool.get(value);
+        if (temp == null) {
+            temp = Temp.createConstTemp(value);
+            constTempPool.put(value, temp);
+        }
+        return temp;
+    }
+
+    public Label createLabel() {
+        return createLabel(false);
+    }
+
+    public Label createLabel(boolean target) {
+        int id = labelCount++;
+        return new Label(id, "_L" + id, target);
+    }
+
+    public Label createLabel(String name, boolean target) {
+        return new Label(labelCount++, name, target);
+    }
+
+    /**
+     * @return the allocator the TACs of all functions are first numbered
+     *         with, in program order
+     */
+    public IDAllocator getTacIds() {
+        return tacIds;
+    }
+
+    public OffsetCounter getOffsetCounter(OffsetCounter.Kind kind) {
+        return offsetCounters[kind.ordinal()];
+    }
+}
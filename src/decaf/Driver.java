@@ -2,63 +2,48 @@ package decaf;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import decaf.tree.Tree;
 import decaf.backend.Mips;
 import decaf.dataflow.FlowGraph;
+import decaf.optimize.Optimizer;
 import decaf.error.DecafError;
 import decaf.frontend.Lexer;
 import decaf.frontend.Parser;
 import decaf.machdesc.MachineDescription;
-import decaf.scope.ScopeStack;
 import decaf.tac.Functy;
 import decaf.translate.Translater;
 import decaf.typecheck.BuildSym;
 import decaf.typecheck.TypeCheck;
 import decaf.utils.IndentPrintWriter;
+import decaf.utils.Jobs;
 
 public final class Driver {
 
-    private static Driver driver;
-
     private Option option;
 
-    private List<DecafError> errors;
-
-    private ScopeStack table;
+    private CompilationContext context;
 
     private Lexer lexer;
 
     private Parser parser;
 
-    public ScopeStack getTable() {
-        return table;
-    }
-
-    public static Driver getDriver() {
-        return driver;
-    }
-
-    public Option getOption() {
-        return option;
-    }
-
-    public void issueError(DecafError error) {
-        errors.add(error);
-    }
-
     // Only allow construction by Driver.main
-    private Driver() {
+    private Driver(Option option) {
+        this.option = option;
     }
 
     /**
      * 如果有错误，输出错误并退出
      */
     private void checkPoint() {
+        List<DecafError> errors = context.getErrors();
         if (errors.size() > 0) {
             Collections.sort(errors, new Comparator<DecafError>() {
 
@@ -76,12 +61,13 @@ public final class Driver {
     }
 
     private void init() {
+        context = new CompilationContext(option);
         lexer = new Lexer(option.getInput());
         parser = new Parser();
         lexer.setParser(parser);
+        lexer.setContext(context);
         parser.setLexer(lexer);
-        errors = new ArrayList<DecafError>();
-        table = new ScopeStack();
+        parser.setContext(context);
     }
 
     private void compile() {
@@ -94,9 +80,9 @@ public final class Driver {
             pw.close();
             return;
         }
-        BuildSym.buildSymbol(tree);
+        BuildSym.buildSymbol(tree, context);
         checkPoint();
-        TypeCheck.checkType(tree);
+        TypeCheck.checkType(tree, context);
         checkPoint();
         if (option.getLevel() == Option.Level.LEVEL1) {
             IndentPrintWriter pw = new IndentPrintWriter(option.getOutput(), 4);
@@ -105,7 +91,7 @@ public final class Driver {
             return;
         }
         PrintWriter pw = new PrintWriter(option.getOutput());
-        Translater tr = Translater.translate(tree);
+        Translater tr = Translater.translate(tree, context);
         checkPoint();
         if (option.getLevel() == Option.Level.LEVEL2) {
             tr.printTo(pw);
@@ -115,7 +101,14 @@ public final class Driver {
 
         List<FlowGraph> graphs = new ArrayList<FlowGraph>();
         for (Functy func : tr.getFuncs()) {
-            graphs.add(new FlowGraph(func));
+            graphs.add(new FlowGraph(func, context));
+        }
+        if (option.showStatistics()) {
+            for (FlowGraph g : graphs) {
+                option.getErr().println(g.getFuncty().label.name + ": liveness converged after "
+                        + g.getLivenessIterations() + " block visits, reaching definitions after "
+                        + g.getReachingDefinitions().getIterations() + " (" + g.size() + " blocks)");
+            }
         }
 
         if (option.getLevel() == Option.Level.LEVEL3) {
@@ -147,7 +140,28 @@ public final class Driver {
             return;
         }
 
-        MachineDescription md = new Mips();
+        if (option.optimize()) {
+            List<Callable<String>> jobs = new ArrayList<Callable<String>>();
+            for (final FlowGraph g : graphs) {
+                jobs.add(new Callable<String>() {
+
+                    @Override
+                    public String call() {
+                        StringWriter log = new StringWriter();
+                        PrintWriter logWriter = new PrintWriter(log);
+                        Optimizer.optimize(g, option, logWriter);
+                        logWriter.close();
+                        return log.toString();
+                    }
+
+                });
+            }
+            for (String log : Jobs.run(jobs, option.getJobs())) {
+                option.getErr().print(log);
+            }
+        }
+
+        MachineDescription md = new Mips(context);
         md.setOutputStream(pw);
         md.emitVTable(tr.getVtables());
         for (int i = 0; i < 3; i++) {
@@ -158,8 +172,7 @@ public final class Driver {
     }
 
     public static void main(String[] args) throws IOException {
-        driver = new Driver();
-        driver.option = new Option(args);
+        Driver driver = new Driver(new Option(args));
         driver.init();
         driver.compile();
     }
@@ -6,6 +6,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
 
 public final class Option {
 
@@ -15,6 +17,12 @@ public final class Option {
         LEVEL3_2 // DUChain only
     }
 
+    public enum Allocator {
+        LOCAL, // one basic block at a time
+        COLOR, // graph coloring of the whole function
+        LINEAR // linear scan of the whole function
+    }
+
     private String srcFileName;
 
     private String dstFileName;
@@ -27,6 +35,20 @@ public final class Option {
 
     private Level level = Level.LEVEL4;
 
+    private boolean statistics;
+
+    private boolean optimize;
+
+    private int jobs = 1;
+
+    private Allocator allocator = Allocator.LOCAL;
+
+    /**
+     * Optimization passes turned on (`-fNAME`) or off (`-fno-NAME`); passes
+     * not named here are on under `-O`.
+     */
+    private Map<String, Boolean> passes = new HashMap<String, Boolean>();
+
     private static final String mainClassName = "Main";
 
     private static final String mainFuncName = "main";
@@ -56,6 +78,32 @@ public final class Option {
                 }
             } else if (args[i].equals("-l")) {
                 level = Level.valueOf("LEVEL" + args[++i]);
+            } else if (args[i].equals("-s")) {
+                statistics = true;
+            } else if (args[i].equals("-j")) {
+                try {
+                    jobs = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    jobs = 0;
+                }
+                if (jobs < 1) {
+                    err.println("Number of jobs must be a positive integer");
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-ra")) {
+                String name = args[++i];
+                try {
+                    allocator = Allocator.valueOf(name.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    err.println("Unknown register allocator " + name);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-O")) {
+                optimize = true;
+            } else if (args[i].startsWith("-fno-")) {
+                passes.put(args[i].substring(5), false);
+            } else if (args[i].startsWith("-f")) {
+                passes.put(args[i].substring(2), true);
             } else {
                 srcFileName = args[i];
                 try {
@@ -84,6 +132,30 @@ public final class Option {
                 + "                                                                \n"
                 + "    -o  Specifying the output file name. stdout if omitted.     \n"
                 + "                                                                \n"
+                + "    -s  Print statistics of the analyses and optimizations.     \n"
+                + "                                                                \n"
+                + "    -O  Optimize the TAC (in SSA form) before code generation.  \n"
+                + "                                                                \n"
+                + "    -j N  Optimize and generate code for N functions at a time.\n"
+                + "        The output is the same for every N.                     \n"
+                + "                                                                \n"
+                + "    -ra ALLOC  Register allocator, ALLOC is one of:             \n"
+                + "        local  One basic block at a time (default)              \n"
+                + "        color  Graph coloring of the whole function             \n"
+                + "        linear Linear scan, quicker than color                  \n"
+                + "                                                                \n"
+                + "    -fno-PASS  Skip an optimization of -O; -fPASS keeps it.     \n"
+                + "        PASS is one of:                                         \n"
+                + "        sccp  Sparse conditional constant propagation           \n"
+                + "        gvn   Global value numbering                            \n"
+                + "        bce   Array bounds-check elimination                    \n"
+                + "        licm  Loop-invariant code motion                        \n"
+                + "        copyprop  Copy propagation                              \n"
+                + "        dce   Dead code elimination                             \n"
+                + "        coalesce  Coalescing of copy-related temps              \n"
+                + "        peephole  Peephole optimization of the MIPS code        \n"
+                + "        slots  Sharing of stack slots by spilled temps          \n"
+                + "                                                                \n"
                 + "\n");
     }
 
@@ -110,4 +182,31 @@ public final class Option {
     public PrintStream getErr() {
         return err;
     }
+
+    public boolean showStatistics() {
+        return statistics;
+    }
+
+    public boolean optimize() {
+        return optimize;
+    }
+
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * @return the number of functions to work on at the same time
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * @return whether the optimization pass `name` is to be run
+     */
+    public boolean isPassEnabled(String name) {
+        Boolean enabled = passes.get(name);
+        return optimize && (enabled == null || enabled);
+    }
 }
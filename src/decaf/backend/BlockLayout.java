@@ -0,0 +1,262 @@
+package decaf.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.Loop;
+import decaf.dataflow.LoopForest;
+import decaf.machdesc.Intrinsic;
+import decaf.tac.Tac;
+
+/**
+ * The order in which `Mips` lays out the blocks of one function, chosen so
+ * that the likely successor of a block follows it and its branch is not
+ * taken, after Pettis and Hansen.
+ *
+ * Each edge is weighted by an estimate of how often it is taken. A block
+ * runs 10 to its loop depth times per call. A conditional branch goes to a
+ * block that calls `_Halt` (a failed runtime check) never, and otherwise
+ * leaves the loop around it one time in 10. Starting with one chain per
+ * block, the edges are visited from the heaviest; an edge from the last
+ * block of a chain to the first of another joins the two, so that its
+ * source falls through into its target. The chain of the entry block is
+ * laid out first, then, as long as any is left, the chain entered by the
+ * heaviest edge from the blocks already laid out.
+ *
+ * A loop tested at its top is thus rotated: the body falls through into the
+ * test, and each iteration takes only the branch back to the body. Only the
+ * blocks reachable from the entry are laid out. Nothing is recursive, so
+ * that huge functions do not overflow the Java stack.
+ */
+final class BlockLayout {
+
+	private static class Edge {
+		int from;
+
+		int to;
+
+		double weight;
+
+		Edge(int from, int to, double weight) {
+			this.from = from;
+			this.to = to;
+			this.weight = weight;
+		}
+	}
+
+	private FlowGraph graph;
+
+	private boolean[] reachable;
+
+	/**
+	 * The edges out of each block, those never taken included.
+	 */
+	private List<List<Edge>> out = new ArrayList<List<Edge>>();
+
+	/**
+	 * bbNum -> the block after it in its chain, or -1.
+	 */
+	private int[] next;
+
+	/**
+	 * bbNum -> the first block of its chain.
+	 */
+	private int[] head;
+
+	private BlockLayout(FlowGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * @return the numbers of the blocks of `graph` reachable from its entry,
+	 *         in the order to lay them out
+	 */
+	static int[] layout(FlowGraph graph) {
+		BlockLayout bl = new BlockLayout(graph);
+		bl.findReachable();
+		bl.weighEdges();
+		bl.formChains();
+		return bl.placeChains();
+	}
+
+	private void findReachable() {
+		reachable = new boolean[graph.size()];
+		List<Integer> stack = new ArrayList<Integer>();
+		reachable[0] = true;
+		stack.add(0);
+		while (!stack.isEmpty()) {
+			int b = stack.remove(stack.size() - 1);
+			for (int succ : graph.getSuccessors(b)) {
+				if (!reachable[succ]) {
+					reachable[succ] = true;
+					stack.add(succ);
+				}
+			}
+		}
+	}
+
+	private void weighEdges() {
+		LoopForest loops = graph.getLoops();
+		for (BasicBlock bb : graph) {
+			List<Edge> edges = new ArrayList<Edge>();
+			out.add(edges);
+			if (!reachable[bb.bbNum]) {
+				continue;
+			}
+			double weight = Math.pow(10, loops.getDepth(bb.bbNum));
+			int[] succs = graph.getSuccessors(bb.bbNum);
+			if (succs.length == 1) {
+				edges.add(new Edge(bb.bbNum, succs[0], weight));
+			} else if (succs.length == 2) {
+				double p = probability(loops.getLoopOf(bb.bbNum), succs[0],
+						succs[1]);
+				edges.add(new Edge(bb.bbNum, succs[0], weight * p));
+				edges.add(new Edge(bb.bbNum, succs[1], weight * (1 - p)));
+			}
+		}
+	}
+
+	/**
+	 * @return the probability that a block in `loop` (null if none) branches
+	 *         to `a` rather than to `b`
+	 */
+	private double probability(Loop loop, int a, int b) {
+		if (halts(a) != halts(b)) {
+			return halts(a) ? 0 : 1;
+		}
+		boolean exitA = loop != null && !loop.contains(a);
+		boolean exitB = loop != null && !loop.contains(b);
+		if (exitA != exitB) {
+			return exitA ? 0.1 : 0.9;
+		}
+		return 0.5;
+	}
+
+	private boolean halts(int bbNum) {
+		for (Tac tac = graph.getBlock(bbNum).tacList; tac != null; tac = tac.next) {
+			if (tac.opc == Tac.Kind.DIRECT_CALL
+					&& tac.label == Intrinsic.HALT.label) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void formChains() {
+		int n = graph.size();
+		next = new int[n];
+		head = new int[n];
+		// union-find over the blocks: each set is a chain, whose root keeps
+		// its first and last blocks and its size
+		int[] parent = new int[n];
+		int[] first = new int[n];
+		int[] last = new int[n];
+		int[] size = new int[n];
+		boolean[] entered = new boolean[n];
+		List<Edge> edges = new ArrayList<Edge>();
+		for (int b = 0; b < n; b++) {
+			next[b] = -1;
+			parent[b] = first[b] = last[b] = b;
+			size[b] = 1;
+			edges.addAll(out.get(b));
+		}
+		// stable: equal weights keep the order of the blocks
+		Collections.sort(edges, new Comparator<Edge>() {
+
+			@Override
+			public int compare(Edge o1, Edge o2) {
+				return Double.compare(o2.weight, o1.weight);
+			}
+
+		});
+		for (Edge e : edges) {
+			// the entry block stays first in its chain
+			if (e.to == 0 || next[e.from] >= 0 || entered[e.to]) {
+				continue;
+			}
+			int from = find(parent, e.from);
+			int to = find(parent, e.to);
+			if (from == to) {
+				continue;
+			}
+			next[e.from] = e.to;
+			entered[e.to] = true;
+			// the smaller chain joins the larger
+			int root = size[from] < size[to] ? to : from;
+			parent[from] = parent[to] = root;
+			size[root] = size[from] + size[to];
+			first[root] = first[from];
+			last[root] = last[to];
+		}
+		for (int b = 0; b < n; b++) {
+			head[b] = first[find(parent, b)];
+		}
+	}
+
+	/**
+	 * @return the root of the set of `b`, halving the path to it
+	 */
+	private static int find(int[] parent, int b) {
+		while (parent[b] != b) {
+			parent[b] = parent[parent[b]];
+			b = parent[b];
+		}
+		return b;
+	}
+
+	private int[] placeChains() {
+		int n = graph.size();
+		// chain head -> the heaviest edge into the chain from the blocks
+		// laid out, -1 if none
+		double[] pull = new double[n];
+		boolean[] placed = new boolean[n];
+		for (int b = 0; b < n; b++) {
+			pull[b] = -1;
+		}
+		// the edges that raised the pull of a chain, heaviest first, then by
+		// the first block of the chain; those outdated are skipped
+		PriorityQueue<Edge> pulls = new PriorityQueue<Edge>(11,
+				new Comparator<Edge>() {
+
+					@Override
+					public int compare(Edge o1, Edge o2) {
+						int c = Double.compare(o2.weight, o1.weight);
+						return c != 0 ? c : head[o1.to] - head[o2.to];
+					}
+
+				});
+		List<Integer> order = new ArrayList<Integer>();
+		int chain = 0;
+		while (chain >= 0) {
+			for (int b = chain; b >= 0; b = next[b]) {
+				order.add(b);
+				placed[b] = true;
+			}
+			for (int b = chain; b >= 0; b = next[b]) {
+				for (Edge e : out.get(b)) {
+					if (!placed[e.to] && e.weight > pull[head[e.to]]) {
+						pull[head[e.to]] = e.weight;
+						pulls.add(e);
+					}
+				}
+			}
+			chain = -1;
+			while (chain < 0 && !pulls.isEmpty()) {
+				Edge e = pulls.poll();
+				if (!placed[e.to] && e.weight == pull[head[e.to]]) {
+					chain = head[e.to];
+				}
+			}
+		}
+		int[] layout = new int[order.size()];
+		for (int i = 0; i < layout.length; i++) {
+			layout[i] = order.get(i);
+		}
+		return layout;
+	}
+}
@@ -0,0 +1,528 @@
+package decaf.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import decaf.CompilationContext;
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.LoopForest;
+import decaf.dataflow.TempIndex;
+import decaf.machdesc.Register;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Allocates the registers of a whole function by coloring its interference
+ * graph (`-ra color`), after Chaitin and Briggs.
+ *
+ * Each round builds the interference graph from liveness and merges the two
+ * temps of an `ASSIGN` where the Briggs or the George test shows that this
+ * cannot make the graph harder to color. Temps with fewer than K neighbours,
+ * K being the number of registers, are then removed one by one; when every
+ * temp left has K or more, the one of least spill cost per neighbour is
+ * removed as well, in the hope it still gets a register. A temp costs the
+ * number of times it is read or written, each weighted by 10 to the loop
+ * depth of its block. The temps get registers in the reverse order. Those
+ * that get none are spilled: they are written to their stack slots right
+ * after every write and read into new temps right before every read, and
+ * the next round starts.
+ *
+ * A temp keeps its register in every block. The caller-saved registers of
+ * the temps live across a call are saved around it, and the parameters live
+ * on entry are loaded at the start of the function, in a block no edge
+ * enters.
+ */
+public class GraphColoringAllocator implements RegisterAllocator {
+
+	private FlowGraph graph;
+
+	private MipsFrameManager frameManager;
+
+	private Register[] regs;
+
+	/**
+	 * `regs`; a temp in any other register before allocation (`$fp`, an
+	 * argument register) is pre-colored, and stays there.
+	 */
+	private Set<Register> allocatable;
+
+	private Temp fp;
+
+	private CompilationContext context;
+
+	/**
+	 * The temps the spill code reads and writes, which are never spilled.
+	 */
+	private Set<Temp> spillTemps = new HashSet<Temp>();
+
+	private TempIndex temps;
+
+	private BitSet[] interferes;
+
+	private double[] cost;
+
+	/**
+	 * `Temp.index` -> the calls the temp is live across, each counting 10 to
+	 * the loop depth of its block.
+	 */
+	private double[] acrossCalls;
+
+	/**
+	 * `Temp.index` -> the temp it was merged into, itself if none.
+	 */
+	private int[] alias;
+
+	/**
+	 * `Temp.index` of a temp not merged into another -> index of its
+	 * register in `regs`, or -1.
+	 */
+	private int[] color;
+
+	/**
+	 * The temps live on entry of the function.
+	 */
+	private BitSet entryLive;
+
+	public GraphColoringAllocator(Temp fp, MipsFrameManager frameManager,
+			Register[] regs, CompilationContext context) {
+		this.fp = fp;
+		this.context = context;
+		this.frameManager = frameManager;
+		this.regs = regs;
+		allocatable = new HashSet<Register>(Arrays.asList(regs));
+	}
+
+	@Override
+	public void alloc(FlowGraph graph) {
+		this.graph = graph;
+		if (graph.ensureEntryWithoutPredecessors()) {
+			graph.analyze();
+		}
+		while (true) {
+			build();
+			coalesce();
+			Set<Temp> spilled = select(simplify());
+			if (spilled.isEmpty()) {
+				break;
+			}
+			spill(spilled);
+			graph.analyze();
+		}
+		assign();
+	}
+
+	/**
+	 * @return whether `t` is given one of `regs`, and is not pre-colored
+	 */
+	private boolean isAllocated(Temp t) {
+		return t != null && temps.contains(t)
+				&& (t.reg == null || allocatable.contains(t.reg));
+	}
+
+	private void build() {
+		temps = graph.getTemps();
+		int n = temps.size();
+		interferes = new BitSet[n];
+		cost = new double[n];
+		acrossCalls = new double[n];
+		alias = new int[n];
+		for (int i = 0; i < n; i++) {
+			interferes[i] = new BitSet();
+			alias[i] = i;
+		}
+		LoopForest loops = graph.getLoops();
+		BitSet live = new BitSet(n);
+		for (BasicBlock bb : graph) {
+			double weight = Math.pow(10, loops.getDepth(bb.bbNum));
+			live.clear();
+			for (Temp t : bb.liveOut) {
+				if (isAllocated(t)) {
+					live.set(t.index);
+				}
+			}
+			if (isAllocated(bb.var)) {
+				live.set(bb.var.index);
+				cost[bb.var.index] += weight;
+			}
+			for (Tac tac = last(bb); tac != null; tac = tac.prev) {
+				Temp def = tac.def();
+				if (isAllocated(def)) {
+					boolean copy = tac.opc == Tac.Kind.ASSIGN;
+					for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+						if (l != def.index && !(copy && tac.op1 == temps.get(l))) {
+							addEdge(def.index, l);
+						}
+					}
+					live.clear(def.index);
+					cost[def.index] += weight;
+				}
+				if (tac.opc == Tac.Kind.DIRECT_CALL
+						|| tac.opc == Tac.Kind.INDIRECT_CALL) {
+					for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+						acrossCalls[l] += weight;
+					}
+				}
+				for (Temp use : tac.uses()) {
+					if (isAllocated(use)) {
+						live.set(use.index);
+						cost[use.index] += weight;
+					}
+				}
+			}
+			if (bb.bbNum == 0) {
+				// the parameters are all loaded on entry
+				for (int a = live.nextSetBit(0); a >= 0; a = live.nextSetBit(a + 1)) {
+					for (int b = live.nextSetBit(a + 1); b >= 0; b = live.nextSetBit(b + 1)) {
+						addEdge(a, b);
+					}
+				}
+				entryLive = (BitSet) live.clone();
+			}
+		}
+		for (Temp t : spillTemps) {
+			if (temps.contains(t)) {
+				cost[t.index] = Double.POSITIVE_INFINITY;
+			}
+		}
+	}
+
+	private static Tac last(BasicBlock bb) {
+		Tac last = bb.tacList;
+		while (last != null && last.next != null) {
+			last = last.next;
+		}
+		return last;
+	}
+
+	private void addEdge(int a, int b) {
+		interferes[a].set(b);
+		interferes[b].set(a);
+	}
+
+	private int find(int i) {
+		while (alias[i] != i) {
+			alias[i] = alias[alias[i]];
+			i = alias[i];
+		}
+		return i;
+	}
+
+	private int degree(int i) {
+		return interferes[i].cardinality();
+	}
+
+	private void coalesce() {
+		int k = regs.length;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock bb : graph) {
+				for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+					if (tac.opc != Tac.Kind.ASSIGN || !isAllocated(tac.op0)
+							|| !isAllocated(tac.op1)
+							|| spillTemps.contains(tac.op0)
+							|| spillTemps.contains(tac.op1)) {
+						continue;
+					}
+					int a = find(tac.op0.index);
+					int b = find(tac.op1.index);
+					if (a == b || interferes[a].get(b)) {
+						continue;
+					}
+					if (!briggs(a, b, k) && !george(a, b, k) && !george(b, a, k)) {
+						continue;
+					}
+					// b is merged into a
+					alias[b] = a;
+					cost[a] += cost[b];
+					acrossCalls[a] += acrossCalls[b];
+					for (int x = interferes[b].nextSetBit(0); x >= 0; x = interferes[b].nextSetBit(x + 1)) {
+						interferes[x].clear(b);
+						addEdge(a, x);
+					}
+					interferes[b].clear();
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether the temp merged of `a` and `b` would have fewer than
+	 *         `k` neighbours of `k` or more neighbours
+	 */
+	private boolean briggs(int a, int b, int k) {
+		BitSet both = (BitSet) interferes[a].clone();
+		both.or(interferes[b]);
+		int significant = 0;
+		for (int x = both.nextSetBit(0); x >= 0; x = both.nextSetBit(x + 1)) {
+			if (degree(x) >= k) {
+				significant++;
+			}
+		}
+		return significant < k;
+	}
+
+	/**
+	 * @return whether every neighbour of `b` already interferes with `a` or
+	 *         has fewer than `k` neighbours
+	 */
+	private boolean george(int a, int b, int k) {
+		for (int x = interferes[b].nextSetBit(0); x >= 0; x = interferes[b].nextSetBit(x + 1)) {
+			if (degree(x) >= k && !interferes[x].get(a)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the temps not merged into others, in the order they are
+	 *         removed from the graph
+	 */
+	private List<Integer> simplify() {
+		int n = temps.size();
+		int k = regs.length;
+		int[] degree = new int[n];
+		boolean[] removed = new boolean[n];
+		Deque<Integer> low = new ArrayDeque<Integer>();
+		int left = 0;
+		for (int i = 0; i < n; i++) {
+			if (find(i) != i) {
+				removed[i] = true;
+				continue;
+			}
+			degree[i] = degree(i);
+			if (degree[i] < k) {
+				low.add(i);
+			}
+			left++;
+		}
+		List<Integer> order = new ArrayList<Integer>(left);
+		while (left > 0) {
+			int pick = -1;
+			while (!low.isEmpty() && pick < 0) {
+				int i = low.poll();
+				if (!removed[i]) {
+					pick = i;
+				}
+			}
+			if (pick < 0) {
+				// every temp left has k neighbours or more
+				double best = Double.POSITIVE_INFINITY;
+				for (int i = 0; i < n; i++) {
+					if (!removed[i] && (pick < 0 || cost[i] / degree[i] < best)) {
+						pick = i;
+						best = cost[i] / degree[i];
+					}
+				}
+			}
+			removed[pick] = true;
+			left--;
+			order.add(pick);
+			for (int x = interferes[pick].nextSetBit(0); x >= 0; x = interferes[pick].nextSetBit(x + 1)) {
+				if (!removed[x] && --degree[x] == k - 1) {
+					low.add(x);
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Color the temps in the reverse of `order`, each with the register
+	 * `RegisterPreference` ranks highest of those its neighbours do not have.
+	 *
+	 * @return the temps that got no register, with the temps merged into them
+	 */
+	private Set<Temp> select(List<Integer> order) {
+		color = new int[temps.size()];
+		Arrays.fill(color, -1);
+		BitSet failed = new BitSet();
+		BitSet used = new BitSet(regs.length);
+		boolean[] chosen = new boolean[regs.length];
+		for (int j = order.size() - 1; j >= 0; j--) {
+			int i = order.get(j);
+			used.clear();
+			for (int x = interferes[i].nextSetBit(0); x >= 0; x = interferes[i].nextSetBit(x + 1)) {
+				if (color[x] >= 0) {
+					used.set(color[x]);
+				}
+			}
+			int best = -1;
+			for (int c = used.nextClearBit(0); c < regs.length; c = used.nextClearBit(c + 1)) {
+				int rank = RegisterPreference.rank(regs[c], chosen[c],
+						acrossCalls[i]);
+				if (rank > best) {
+					color[i] = c;
+					best = rank;
+				}
+			}
+			if (best < 0) {
+				failed.set(i);
+			} else {
+				chosen[color[i]] = true;
+			}
+		}
+		Set<Temp> spilled = new HashSet<Temp>();
+		for (int i = 0; i < temps.size(); i++) {
+			if (failed.get(find(i))) {
+				Temp t = temps.get(i);
+				if (spillTemps.contains(t)) {
+					throw new IllegalStateException("no register left for "
+							+ t + " in " + graph.getFuncty().label);
+				}
+				spilled.add(t);
+			}
+		}
+		return spilled;
+	}
+
+	/**
+	 * Keep the temps of `spilled` in their stack slots, and read and write
+	 * them through new temps.
+	 */
+	private void spill(Set<Temp> spilled) {
+		for (Temp t : spilled) {
+			frameManager.findSlot(t);
+		}
+		for (BasicBlock bb : graph) {
+			Tac next;
+			for (Tac tac = bb.tacList; tac != null; tac = next) {
+				next = tac.next;
+				Temp[] uses = tac.uses();
+				for (int i = 0; i < uses.length; i++) {
+					Temp use = uses[i];
+					if (!spilled.contains(use) || readBefore(uses, i)) {
+						continue;
+					}
+					Temp t = createSpillTemp();
+					bb.insertBefore(Tac.genLoad(t, fp, context
+							.createConstTemp(use.offset)), tac);
+					tac.replaceUse(use, t);
+				}
+				Temp def = tac.def();
+				if (def != null && spilled.contains(def)) {
+					Temp t = createSpillTemp();
+					tac.op0 = t;
+					bb.insertAfter(Tac.genStore(t, fp, context
+							.createConstTemp(def.offset)), tac);
+				}
+			}
+			if (bb.var != null && spilled.contains(bb.var)) {
+				Temp t = createSpillTemp();
+				bb.append(Tac.genLoad(t, fp, context
+						.createConstTemp(bb.var.offset)));
+				bb.var = t;
+			}
+		}
+	}
+
+	private static boolean readBefore(Temp[] uses, int i) {
+		for (int j = 0; j < i; j++) {
+			if (uses[j] == uses[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Temp createSpillTemp() {
+		Temp t = graph.createTempI4();
+		spillTemps.add(t);
+		return t;
+	}
+
+	private void assign() {
+		for (int i = 0; i < temps.size(); i++) {
+			Temp t = temps.get(i);
+			if (isAllocated(t)) {
+				t.reg = regs[color[find(i)]];
+			}
+		}
+
+		BasicBlock entry = graph.getBlock(0);
+		for (int i = entryLive.nextSetBit(0); i >= 0; i = entryLive.nextSetBit(i + 1)) {
+			Temp t = temps.get(i);
+			if (!t.isParam) {
+				context.getOption().getErr().println(
+						t + " may used before define during register allocation");
+				continue;
+			}
+			Tac load = Tac.genLoad(t, fp, context.createConstTemp(t.offset));
+			if (entry.tacList == null) {
+				entry.append(load);
+			} else {
+				entry.insertBefore(load, entry.tacList);
+			}
+		}
+
+		BitSet live = new BitSet(temps.size());
+		for (BasicBlock bb : graph) {
+			live.clear();
+			for (Temp t : bb.liveOut) {
+				if (isAllocated(t)) {
+					live.set(t.index);
+				}
+			}
+			if (isAllocated(bb.var)) {
+				live.set(bb.var.index);
+			}
+			for (Tac tac = last(bb); tac != null; tac = tac.prev) {
+				Temp def = tac.def();
+				if (def != null) {
+					live.clear(def.index);
+				}
+				if (tac.opc == Tac.Kind.DIRECT_CALL
+						|| tac.opc == Tac.Kind.INDIRECT_CALL) {
+					tac.saves = new HashMap<Temp, Register>();
+					for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+						Temp t = temps.get(find(l));
+						if (!t.reg.isCalleeSaved()) {
+							frameManager.findSlot(t);
+							tac.saves.put(t, t.reg);
+						}
+					}
+				}
+				for (Temp use : tac.uses()) {
+					if (isAllocated(use)) {
+						live.set(use.index);
+					}
+				}
+			}
+		}
+
+		for (BasicBlock bb : graph) {
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				switch (tac.opc) {
+				case PARM:
+					if (tac.op1 == null) {
+						// passed on the stack, not in an argument register
+						int offset = frameManager.addActual(tac.op0);
+						tac.op1 = context.createConstTemp(offset);
+					}
+					break;
+				case DIRECT_CALL:
+				case INDIRECT_CALL:
+					frameManager.finishActual();
+					break;
+				default:
+					break;
+				}
+				tac.reg0 = tac.op0 == null ? null : tac.op0.reg;
+				tac.reg1 = tac.op1 == null ? null : tac.op1.reg;
+				tac.reg2 = tac.op2 == null ? null : tac.op2.reg;
+			}
+			bb.saves = new HashMap<Temp, Register>();
+			bb.varReg = bb.var == null ? null : bb.var.reg;
+		}
+	}
+}
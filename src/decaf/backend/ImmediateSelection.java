@@ -0,0 +1,259 @@
+package decaf.backend;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import decaf.CompilationContext;
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.TempIndex;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Selection of the immediate forms of MIPS instructions, on the TAC of one
+ * function before register allocation.
+ *
+ * A temp written only by a `LOAD_IMM4`, and not read before it on any path,
+ * holds that constant wherever it is read. Where the constant fits the
+ * immediate of an instruction doing the operation, the TAC reads the
+ * constant temp itself instead, which `Mips` emits as the immediate:
+ *
+ * <pre>
+ * ADD a, b, c      addi a, b, c       c in 16 bits, signed
+ * SUB a, b, c      addi a, b, -c      -c in 16 bits, signed
+ * MUL a, b, 2^k    sll a, b, k
+ * LAND a, b, c     andi a, b, c       c in 16 bits, unsigned
+ * LOR a, b, c      ori a, b, c        c in 16 bits, unsigned
+ * LES a, b, c      slti a, b, c       c in 16 bits, signed
+ * GTR a, c, b      slti a, b, c       c in 16 bits, signed
+ * </pre>
+ *
+ * Like add and sub, addi traps on overflow, which the optimizations count
+ * on; it is not used for a SUB of -32768, whose negation does not fit.
+ *
+ * The constant 0 is read from `$zero` by the other operations, and stored
+ * from it. The `LOAD_IMM4` of a temp no longer read is removed, so such a
+ * temp is never given a register.
+ */
+final class ImmediateSelection {
+
+	private FlowGraph graph;
+
+	private CompilationContext context;
+
+	private TempIndex temps;
+
+	/**
+	 * `Temp.index` -> the `LOAD_IMM4` that is the only TAC writing the temp,
+	 * null if there is none.
+	 */
+	private Tac[] constDef;
+
+	private BitSet changedBlocks = new BitSet();
+
+	private List<Temp> changedTemps = new ArrayList<Temp>();
+
+	private ImmediateSelection(FlowGraph graph, CompilationContext context) {
+		this.graph = graph;
+		this.context = context;
+	}
+
+	/**
+	 * Let the TACs of `graph` read constants where they can, and bring its
+	 * liveness up to date.
+	 */
+	static void select(FlowGraph graph, CompilationContext context) {
+		ImmediateSelection is = new ImmediateSelection(graph, context);
+		is.findConstants();
+		is.rewrite();
+		is.removeLoads();
+		if (!is.changedBlocks.isEmpty()) {
+			graph.updateLiveness(is.changedBlocks, is.changedTemps);
+		}
+	}
+
+	private void findConstants() {
+		temps = graph.getTemps();
+		constDef = new Tac[temps.size()];
+		BitSet written = new BitSet(temps.size());
+		for (BasicBlock bb : graph) {
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				Temp def = tac.def();
+				if (def == null || !temps.contains(def)) {
+					continue;
+				}
+				if (written.get(def.index)) {
+					constDef[def.index] = null;
+				} else if (tac.opc == Tac.Kind.LOAD_IMM4) {
+					constDef[def.index] = tac;
+				}
+				written.set(def.index);
+			}
+		}
+		// a temp read before it is written holds no constant there
+		for (Temp t : graph.getBlock(0).liveIn) {
+			constDef[t.index] = null;
+		}
+	}
+
+	/**
+	 * @return the constant `t` holds, null if none
+	 */
+	private Integer constant(Temp t) {
+		if (t == null || !temps.contains(t) || constDef[t.index] == null) {
+			return null;
+		}
+		return constDef[t.index].op1.value;
+	}
+
+	private void rewrite() {
+		for (BasicBlock bb : graph) {
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				Temp op1 = tac.op1;
+				Temp op2 = tac.op2;
+				switch (tac.opc) {
+				case ADD:
+				case MUL:
+				case LAND:
+				case LOR:
+					if (!fitsImmediate(tac.opc, constant(tac.op2))
+							&& fitsImmediate(tac.opc, constant(tac.op1))) {
+						tac.op1 = op2;
+						tac.op2 = op1;
+					}
+					foldImmediate(tac);
+					break;
+				case SUB:
+					Integer c = constant(tac.op2);
+					if (c != null && c != Integer.MIN_VALUE
+							&& isSigned16(-c)) {
+						tac.opc = Tac.Kind.ADD;
+						tac.op2 = context.createConstTemp(-c);
+					}
+					break;
+				case GTR:
+					if (isSigned16(constant(tac.op1))) {
+						tac.opc = Tac.Kind.LES;
+						tac.op1 = op2;
+						tac.op2 = op1;
+					}
+					foldImmediate(tac);
+					break;
+				case LES:
+					foldImmediate(tac);
+					break;
+				default:
+					break;
+				}
+				switch (tac.opc) {
+				case ADD:
+				case SUB:
+				case MUL:
+				case DIV:
+				case MOD:
+				case LAND:
+				case LOR:
+				case GTR:
+				case GEQ:
+				case EQU:
+				case NEQ:
+				case LEQ:
+				case LES:
+					tac.op1 = foldZero(tac.op1);
+					tac.op2 = foldZero(tac.op2);
+					break;
+				case STORE:
+					tac.op0 = foldZero(tac.op0);
+					break;
+				default:
+					break;
+				}
+				if (tac.op0 != null && tac.op0.isConst || tac.op1 != op1
+						|| tac.op2 != op2) {
+					changedBlocks.set(bb.bbNum);
+					addChanged(op1);
+					addChanged(op2);
+					addChanged(tac.op0);
+				}
+			}
+		}
+	}
+
+	private void addChanged(Temp t) {
+		if (constant(t) != null) {
+			changedTemps.add(t);
+		}
+	}
+
+	private void foldImmediate(Tac tac) {
+		Integer c = constant(tac.op2);
+		if (fitsImmediate(tac.opc, c)) {
+			tac.op2 = context.createConstTemp(c);
+		}
+	}
+
+	private Temp foldZero(Temp t) {
+		Integer c = constant(t);
+		return c != null && c == 0 ? context.createConstTemp(0) : t;
+	}
+
+	/**
+	 * @return whether `Mips` can emit `opc` with the constant `c` as its
+	 *         second operand
+	 */
+	private static boolean fitsImmediate(Tac.Kind opc, Integer c) {
+		if (c == null) {
+			return false;
+		}
+		switch (opc) {
+		case ADD:
+		case LES:
+			return isSigned16(c);
+		case MUL:
+			return c > 0 && (c & (c - 1)) == 0;
+		case LAND:
+		case LOR:
+			return c >= 0 && c <= 0xFFFF;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isSigned16(Integer c) {
+		return c != null && c >= Short.MIN_VALUE && c <= Short.MAX_VALUE;
+	}
+
+	/**
+	 * Remove the `LOAD_IMM4`s of the constant temps no longer read.
+	 */
+	private void removeLoads() {
+		BitSet read = new BitSet(temps.size());
+		for (BasicBlock bb : graph) {
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				for (Temp use : tac.uses()) {
+					if (temps.contains(use)) {
+						read.set(use.index);
+					}
+				}
+			}
+			if (bb.var != null) {
+				read.set(bb.var.index);
+			}
+		}
+		for (BasicBlock bb : graph) {
+			Tac next;
+			for (Tac tac = bb.tacList; tac != null; tac = next) {
+				next = tac.next;
+				Temp def = tac.def();
+				if (tac.opc == Tac.Kind.LOAD_IMM4 && constDef[def.index] == tac
+						&& !read.get(def.index)) {
+					bb.remove(tac);
+					changedBlocks.set(bb.bbNum);
+					changedTemps.add(def);
+				}
+			}
+		}
+	}
+}
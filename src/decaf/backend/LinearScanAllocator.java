@@ -0,0 +1,532 @@
+package decaf.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import decaf.CompilationContext;
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.LoopForest;
+import decaf.dataflow.TempIndex;
+import decaf.machdesc.Register;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Allocates the registers of a whole function in one pass over its live
+ * intervals (`-ra linear`), after Poletto and Sarkar, with the splitting of
+ * Wimmer and Mössenböck. It gives code close to `GraphColoringAllocator` in
+ * time linear in the size of the function, for huge generated programs.
+ *
+ * The blocks are laid out in reverse postorder and their TACs numbered in
+ * that order, a TAC reading its operands at an even position and writing
+ * its result at the next one. The interval of a temp runs from the first to
+ * the last position it is live at, holes included. The intervals get
+ * registers in the order they start. When no register is free, the
+ * interval that is referenced furthest ahead gives its register up and is
+ * split: its value is in its stack slot from there on, and the rest of it,
+ * from its next reference, is an interval that waits for a register again.
+ * An interval that starts at a block entry and is referenced later than all
+ * the others is split before its first reference instead.
+ *
+ * A temp that is ever split is stored to its slot after each write, so the
+ * slot holds its value wherever it is live. An interval of it is loaded
+ * where it starts with a read, and at the entry of each block it covers
+ * that is entered from outside it. The caller-saved registers of the temps
+ * live across a call are saved around it, and the parameters live on entry
+ * are loaded at the start of the function, in a block no edge enters.
+ */
+public class LinearScanAllocator implements RegisterAllocator {
+
+	private static final int NONE = Integer.MAX_VALUE;
+
+	/**
+	 * The part of the live interval of one temp that stays in one register,
+	 * or waits for one.
+	 */
+	private class Interval {
+
+		int temp;
+
+		int from;
+
+		int to;
+
+		int reg = -1;
+
+		/**
+		 * Index in `refs[temp]` of the first reference not before the
+		 * position looked at last.
+		 */
+		int nextRef;
+
+		Interval(int temp, int from, int to, int nextRef) {
+			this.temp = temp;
+			this.from = from;
+			this.to = to;
+			this.nextRef = nextRef;
+		}
+
+		/**
+		 * @return the first position from `pos` on where the temp is read or
+		 *         written, or `NONE`; `pos` never goes back
+		 */
+		int nextUse(int pos) {
+			while (nextRef < refCount[temp] && refs[temp][nextRef] < pos) {
+				nextRef++;
+			}
+			return nextRef < refCount[temp] ? refs[temp][nextRef] : NONE;
+		}
+	}
+
+	private FlowGraph graph;
+
+	private MipsFrameManager frameManager;
+
+	private Register[] regs;
+
+	/**
+	 * `regs`; a temp in any other register before allocation (`$fp`, an
+	 * argument register) is pre-colored, and stays there.
+	 */
+	private Set<Register> allocatable;
+
+	private Temp fp;
+
+	private CompilationContext context;
+
+	private TempIndex temps;
+
+	/**
+	 * The original TACs of each block, which the positions refer to.
+	 */
+	private Tac[][] tacs;
+
+	private int[] blockFrom;
+
+	private int[] blockTo;
+
+	/**
+	 * `Temp.index` -> the positions the temp is read or written at, in order.
+	 */
+	private int[][] refs;
+
+	private int[] refCount;
+
+	private int[] first;
+
+	private int[] last;
+
+	/**
+	 * Position -> the calls before it, each counting 10 to the loop depth of
+	 * its block.
+	 */
+	private double[] callsBefore;
+
+	/**
+	 * `Temp.index` -> the intervals that got a register, in order.
+	 */
+	private List<List<Interval>> pieces;
+
+	/**
+	 * The temps ever kept in their stack slots.
+	 */
+	private BitSet split;
+
+	public LinearScanAllocator(Temp fp, MipsFrameManager frameManager,
+			Register[] regs, CompilationContext context) {
+		this.fp = fp;
+		this.context = context;
+		this.frameManager = frameManager;
+		this.regs = regs;
+		allocatable = new HashSet<Register>(Arrays.asList(regs));
+	}
+
+	@Override
+	public void alloc(FlowGraph graph) {
+		this.graph = graph;
+		if (graph.ensureEntryWithoutPredecessors()) {
+			graph.analyze();
+		}
+		temps = graph.getTemps();
+		buildIntervals();
+		scan();
+		rewrite();
+	}
+
+	/**
+	 * @return whether `t` is given one of `regs`, and is not pre-colored
+	 */
+	private boolean isAllocated(Temp t) {
+		return t != null && temps.contains(t)
+				&& (t.reg == null || allocatable.contains(t.reg));
+	}
+
+	private void buildIntervals() {
+		int n = temps.size();
+		refs = new int[n][];
+		refCount = new int[n];
+		first = new int[n];
+		last = new int[n];
+		Arrays.fill(first, NONE);
+		Arrays.fill(last, -1);
+		tacs = new Tac[graph.size()][];
+		blockFrom = new int[graph.size()];
+		blockTo = new int[graph.size()];
+		int positions = 0;
+		for (BasicBlock bb : graph) {
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				positions += 2;
+			}
+			positions += 4;
+		}
+		callsBefore = new double[positions + 1];
+		LoopForest loops = graph.getLoops();
+		int pos = 0;
+		for (int b : graph.reversePostorder()) {
+			BasicBlock bb = graph.getBlock(b);
+			double weight = Math.pow(10, loops.getDepth(b));
+			blockFrom[b] = pos;
+			for (Temp t : bb.liveIn) {
+				if (isAllocated(t)) {
+					extend(t.index, pos);
+				}
+			}
+			callsBefore[pos + 1] = callsBefore[pos + 2] = callsBefore[pos];
+			pos += 2;
+			List<Tac> list = new ArrayList<Tac>();
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				list.add(tac);
+				callsBefore[pos + 1] = callsBefore[pos];
+				if (tac.opc == Tac.Kind.DIRECT_CALL
+						|| tac.opc == Tac.Kind.INDIRECT_CALL) {
+					callsBefore[pos + 1] += weight;
+				}
+				callsBefore[pos + 2] = callsBefore[pos + 1];
+				for (Temp use : tac.uses()) {
+					if (isAllocated(use)) {
+						addRef(use.index, pos);
+					}
+				}
+				Temp def = tac.def();
+				if (isAllocated(def)) {
+					addRef(def.index, pos + 1);
+				}
+				pos += 2;
+			}
+			tacs[b] = list.toArray(new Tac[list.size()]);
+			blockTo[b] = pos;
+			if (isAllocated(bb.var)) {
+				addRef(bb.var.index, pos);
+			}
+			for (Temp t : bb.liveOut) {
+				if (isAllocated(t)) {
+					extend(t.index, pos);
+				}
+			}
+			callsBefore[pos + 1] = callsBefore[pos + 2] = callsBefore[pos];
+			pos += 2;
+		}
+	}
+
+	/**
+	 * @return the calls `i` is live across, each counting 10 to the loop
+	 *         depth of its block
+	 */
+	private double acrossCalls(Interval i) {
+		// a call at position p is crossed if the interval holds p and p + 2
+		return i.to - 1 > i.from ? callsBefore[i.to - 1] - callsBefore[i.from]
+				: 0;
+	}
+
+	private void extend(int t, int pos) {
+		first[t] = Math.min(first[t], pos);
+		last[t] = Math.max(last[t], pos);
+	}
+
+	private void addRef(int t, int pos) {
+		extend(t, pos);
+		if (refs[t] == null) {
+			refs[t] = new int[4];
+		} else if (refCount[t] == refs[t].length) {
+			refs[t] = Arrays.copyOf(refs[t], 2 * refCount[t]);
+		}
+		refs[t][refCount[t]++] = pos;
+	}
+
+	private void scan() {
+		int n = temps.size();
+		pieces = new ArrayList<List<Interval>>(n);
+		split = new BitSet(n);
+		PriorityQueue<Interval> unhandled = new PriorityQueue<Interval>(
+				Math.max(n, 1), new Comparator<Interval>() {
+
+					@Override
+					public int compare(Interval o1, Interval o2) {
+						if (o1.from != o2.from) {
+							return o1.from < o2.from ? -1 : 1;
+						}
+						return o1.temp - o2.temp;
+					}
+
+				});
+		for (int i = 0; i < n; i++) {
+			pieces.add(new ArrayList<Interval>(1));
+			if (first[i] <= last[i] && temps.get(i) != fp) {
+				unhandled.add(new Interval(i, first[i], last[i], 0));
+			}
+		}
+		Interval[] holder = new Interval[regs.length];
+		boolean[] used = new boolean[regs.length];
+		while (!unhandled.isEmpty()) {
+			Interval cur = unhandled.poll();
+			int pos = cur.from;
+			double acrossCalls = acrossCalls(cur);
+			int free = -1;
+			int best = -1;
+			for (int r = 0; r < regs.length; r++) {
+				if (holder[r] != null && holder[r].to < pos) {
+					holder[r] = null;
+				}
+				if (holder[r] == null) {
+					int rank = RegisterPreference.rank(regs[r], used[r],
+							acrossCalls);
+					if (rank > best) {
+						free = r;
+						best = rank;
+					}
+				}
+			}
+			if (free < 0) {
+				int furthest = -1;
+				for (int r = 0; r < regs.length; r++) {
+					if (furthest < 0
+							|| holder[r].nextUse(pos) > holder[furthest].nextUse(pos)) {
+						furthest = r;
+					}
+				}
+				Interval victim = holder[furthest];
+				int victimUse = victim.nextUse(pos);
+				int curUse = cur.nextUse(pos);
+				if (curUse > victimUse) {
+					// live on entry here, but not needed for a while
+					split.set(cur.temp);
+					if (curUse != NONE) {
+						unhandled.add(new Interval(cur.temp, curUse, cur.to,
+								cur.nextRef));
+					}
+					continue;
+				}
+				if (victimUse == pos) {
+					throw new IllegalStateException("no register left for "
+							+ temps.get(cur.temp) + " in "
+							+ graph.getFuncty().label);
+				}
+				split.set(victim.temp);
+				if (victimUse != NONE) {
+					unhandled.add(new Interval(victim.temp, victimUse,
+							victim.to, victim.nextRef));
+				}
+				victim.to = pos - 1;
+				if (victim.to < victim.from) {
+					List<Interval> list = pieces.get(victim.temp);
+					list.remove(list.size() - 1);
+				}
+				free = furthest;
+			}
+			cur.reg = free;
+			used[free] = true;
+			holder[free] = cur;
+			pieces.get(cur.temp).add(cur);
+		}
+	}
+
+	/**
+	 * @return the interval of `t` that has a register at `pos`, or null if
+	 *         `t` is in its stack slot there
+	 */
+	private Interval pieceAt(Temp t, int pos) {
+		List<Interval> list = pieces.get(t.index);
+		int lo = 0;
+		int hi = list.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			Interval piece = list.get(mid);
+			if (pos < piece.from) {
+				hi = mid - 1;
+			} else if (pos > piece.to) {
+				lo = mid + 1;
+			} else {
+				return piece;
+			}
+		}
+		return null;
+	}
+
+	private Register regAt(Temp t, int pos) {
+		if (!isAllocated(t)) {
+			// `$fp`, an argument register, or none for a constant
+			return t == null ? null : t.reg;
+		}
+		return regs[pieceAt(t, pos).reg];
+	}
+
+	private void rewrite() {
+		for (int i = split.nextSetBit(0); i >= 0; i = split.nextSetBit(i + 1)) {
+			frameManager.findSlot(temps.get(i));
+		}
+		for (BasicBlock bb : graph) {
+			int b = bb.bbNum;
+			loadOnEntry(bb);
+			saveAroundCalls(bb);
+			int pos = blockFrom[b] + 2;
+			for (Tac tac : tacs[b]) {
+				Temp[] uses = tac.uses();
+				for (int i = 0; i < uses.length; i++) {
+					Temp use = uses[i];
+					if (isAllocated(use) && pieceAt(use, pos).from == pos
+							&& !readBefore(uses, i)) {
+						bb.insertBefore(load(use, regAt(use, pos)), tac);
+					}
+				}
+				Temp def = tac.def();
+				switch (tac.opc) {
+				case PARM:
+					if (tac.op1 == null) {
+						// passed on the stack, not in an argument register
+						int offset = frameManager.addActual(tac.op0);
+						tac.op1 = context.createConstTemp(offset);
+					}
+					break;
+				case DIRECT_CALL:
+				case INDIRECT_CALL:
+					frameManager.finishActual();
+					break;
+				default:
+					break;
+				}
+				tac.reg0 = def != null ? regAt(def, pos + 1) : regAt(tac.op0, pos);
+				tac.reg1 = regAt(tac.op1, pos);
+				tac.reg2 = regAt(tac.op2, pos);
+				if (isAllocated(def) && split.get(def.index)) {
+					Tac store = Tac.genStore(def, fp, context
+							.createConstTemp(def.offset));
+					store.reg0 = tac.reg0;
+					store.reg1 = fp.reg;
+					bb.insertAfter(store, tac);
+				}
+				pos += 2;
+			}
+			bb.varReg = regAt(bb.var, pos);
+			if (isAllocated(bb.var)) {
+				if (pieceAt(bb.var, pos).from == pos) {
+					bb.append(load(bb.var, bb.varReg));
+				}
+			}
+			bb.saves = new HashMap<Temp, Register>();
+		}
+	}
+
+	/**
+	 * Load the temps live on entry of `bb` into their registers, where they
+	 * may not be in them already.
+	 */
+	private void loadOnEntry(BasicBlock bb) {
+		int pos = blockFrom[bb.bbNum];
+		Tac head = bb.tacList;
+		for (Temp t : bb.liveIn) {
+			if (!isAllocated(t)) {
+				continue;
+			}
+			Interval piece = pieceAt(t, pos);
+			if (piece == null) {
+				continue;
+			}
+			if (bb.bbNum == 0) {
+				if (!t.isParam) {
+					context.getOption().getErr().println(
+							t + " may used before define during register allocation");
+					continue;
+				}
+			} else if (!split.get(t.index) || !enteredFromOutside(bb, piece)) {
+				continue;
+			}
+			Tac load = load(t, regs[piece.reg]);
+			if (head == null) {
+				bb.append(load);
+			} else {
+				bb.insertBefore(load, head);
+			}
+		}
+	}
+
+	private boolean enteredFromOutside(BasicBlock bb, Interval piece) {
+		for (int p : graph.getPredecessors(bb.bbNum)) {
+			if (blockTo[p] < piece.from || blockTo[p] > piece.to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void saveAroundCalls(BasicBlock bb) {
+		BitSet live = new BitSet(temps.size());
+		for (Temp t : bb.liveOut) {
+			if (isAllocated(t)) {
+				live.set(t.index);
+			}
+		}
+		if (isAllocated(bb.var)) {
+			live.set(bb.var.index);
+		}
+		Tac[] list = tacs[bb.bbNum];
+		for (int k = list.length - 1; k >= 0; k--) {
+			Tac tac = list[k];
+			Temp def = tac.def();
+			if (def != null) {
+				live.clear(def.index);
+			}
+			if (tac.opc == Tac.Kind.DIRECT_CALL
+					|| tac.opc == Tac.Kind.INDIRECT_CALL) {
+				int after = blockFrom[bb.bbNum] + 2 * k + 3;
+				tac.saves = new HashMap<Temp, Register>();
+				for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+					Temp t = temps.get(l);
+					Interval piece = pieceAt(t, after);
+					if (piece != null && !regs[piece.reg].isCalleeSaved()) {
+						frameManager.findSlot(t);
+						tac.saves.put(t, regs[piece.reg]);
+					}
+				}
+			}
+			for (Temp use : tac.uses()) {
+				if (isAllocated(use)) {
+					live.set(use.index);
+				}
+			}
+		}
+	}
+
+	private Tac load(Temp t, Register reg) {
+		Tac load = Tac.genLoad(t, fp, context.createConstTemp(t.offset));
+		load.reg0 = reg;
+		load.reg1 = fp.reg;
+		return load;
+	}
+
+	private static boolean readBefore(Temp[] uses, int i) {
+		for (int j = 0; j < i; j++) {
+			if (uses[j] == uses[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
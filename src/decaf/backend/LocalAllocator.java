@@ -0,0 +1,474 @@
+package decaf.backend;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import decaf.CompilationContext;
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.LoopForest;
+import decaf.machdesc.Register;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Allocates the registers of a function one basic block at a time (`-ra
+ * local`, the default).
+ *
+ * A temp is loaded from its stack slot when a TAC reads it and is not in a
+ * register. Registers are taken back from dead values first, then from the
+ * value read furthest ahead in the block, preferring one that is already in
+ * its slot. A value live across a call is put in a callee-saved register
+ * where one is free, so that it is not saved around the call. Every block
+ * starts with empty registers; the temps live out of a block are stored at
+ * its end.
+ */
+public class LocalAllocator implements RegisterAllocator {
+	private BasicBlock bb;
+
+	private MipsFrameManager frameManager;
+
+	private Register[] regs;
+
+	/**
+	 * `regs`; a temp in any other register before allocation (`$fp`, an
+	 * argument register) is pre-colored, and stays there.
+	 */
+	private Set<Register> allocatable;
+
+	private Temp fp;
+
+	private CompilationContext context;
+
+	/**
+	 * The temps of the block whose registers hold what their slots do, having
+	 * been loaded or stored and not written since; they need no store.
+	 */
+	private Set<Temp> clean = new HashSet<Temp>();
+
+	/**
+	 * Liveness in the block, by operand: for the operands `op0`, `op1` and
+	 * `op2` of the TAC with id `firstId + i`, at `3 * i`, `3 * i + 1` and
+	 * `3 * i + 2`, the id of the next TAC to read it (`endId` for the temp
+	 * tested or returned at the end of the block), `endId + 1` if it is only
+	 * live out of the block, or the TAC's own id if it is dead after it.
+	 */
+	private int[] liveUntil;
+
+	private int firstId;
+
+	/**
+	 * For the TAC with id `firstId + i`, at `i`: the id of the first call at
+	 * or after it, or `Integer.MAX_VALUE`.
+	 */
+	private int[] nextCall;
+
+	/**
+	 * Index in `regs` -> the entry of `liveUntil` for the last reference to
+	 * the value in the register, so whether the value is live at a TAC is a
+	 * comparison.
+	 */
+	private int[] regLiveUntil;
+
+	/**
+	 * Index in `regs` -> whether the function has used the register; the
+	 * callee-saved ones it used are saved on entry and restored on return.
+	 */
+	private boolean[] used;
+
+	/**
+	 * Whether the block is in a loop.
+	 */
+	private boolean inLoop;
+
+	private LoopForest loops;
+
+	/**
+	 * `Temp.index` -> the id of the next TAC to read the temp, or -1 if it is
+	 * written first or dead; used while `liveUntil` is built.
+	 */
+	private int[] nextRead;
+
+	/**
+	 * `Temp.index` -> the number of the last block `nextRead` was set in.
+	 */
+	private int[] seen;
+
+	private int blockCount;
+
+	public LocalAllocator(Temp fp, MipsFrameManager frameManager,
+			Register[] regs, CompilationContext context) {
+		this.fp = fp;
+		this.context = context;
+		this.frameManager = frameManager;
+		this.regs = regs;
+		allocatable = new HashSet<Register>(Arrays.asList(regs));
+		regLiveUntil = new int[regs.length];
+		used = new boolean[regs.length];
+	}
+
+	@Override
+	public void alloc(FlowGraph graph) {
+		nextRead = new int[graph.getTemps().size()];
+		seen = new int[nextRead.length];
+		blockCount = 0;
+		Arrays.fill(used, false);
+		loops = graph.getLoops();
+		for (BasicBlock bb : graph) {
+			if (!bb.cancelled) {
+				alloc(bb);
+			}
+		}
+	}
+
+	private void alloc(BasicBlock bb) {
+		this.bb = bb;
+		clear();
+		computeLiveUntil();
+		inLoop = loops.getDepth(bb.bbNum) > 0;
+
+		Tac tail = null;
+		for (Tac tac = bb.tacList; tac != null; tail = tac, tac = tac.next) {
+			switch (tac.opc) {
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case MOD:
+			case LAND:
+			case LOR:
+			case GTR:
+			case GEQ:
+			case EQU:
+			case NEQ:
+			case LEQ:
+			case LES:
+				findRegForRead(tac, tac.op1);
+				findRegForRead(tac, tac.op2);
+				findRegForWrite(tac, tac.op0);
+				break;
+			case NEG:
+			case LNOT:
+			case ASSIGN:
+				findRegForRead(tac, tac.op1);
+				findRegForWrite(tac, tac.op0);
+				break;
+			case LOAD_VTBL:
+			case LOAD_IMM4:
+			case LOAD_STR_CONST:
+				findRegForWrite(tac, tac.op0);
+				break;
+			case INDIRECT_CALL:
+				findRegForRead(tac, tac.op1);
+			case DIRECT_CALL:
+				if (tac.op0 != null) {
+					findRegForWrite(tac, tac.op0);
+				}
+				frameManager.finishActual();
+				tac.saves = new HashMap<Temp, Register>();
+				for (int r = 0; r < regs.length; r++) {
+					Register reg = regs[r];
+					Temp t = reg.var;
+					if (t != null && t.reg == reg && !reg.isCalleeSaved()
+							&& !t.equals(tac.op0)
+							&& regLiveUntil[r] > tac.id) {
+						if (clean.contains(t)) {
+							// its slot is current: read it again when needed
+							reg.var = null;
+							continue;
+						}
+						frameManager.findSlot(t);
+						tac.saves.put(t, reg);
+						clean.add(t);
+					}
+				}
+				break;
+			case PARM:
+				findRegForRead(tac, tac.op0);
+				if (tac.op1 == null) {
+					// passed on the stack, not in an argument register
+					int offset = frameManager.addActual(tac.op0);
+					tac.op1 = context.createConstTemp(offset);
+				}
+				break;
+			case LOAD:
+				findRegForRead(tac, tac.op1);
+				findRegForWrite(tac, tac.op0);
+				break;
+			case STORE:
+				findRegForRead(tac, tac.op1);
+				findRegForRead(tac, tac.op0);
+				break;
+			case BRANCH:
+			case BEQZ:
+			case BNEZ:
+			case RETURN:
+				throw new IllegalArgumentException();
+			}
+			record(tac);
+		}
+
+		bb.saves = new HashMap<Temp, Register>();
+		for (Temp t : bb.liveOut) {
+			if (t.reg != null && t.equals(t.reg.var) && !clean.contains(t)) {
+				frameManager.findSlot(t);
+				bb.saves.put(t, t.reg);
+			}
+		}
+		
+		switch (bb.endKind) {
+		case BY_RETURN:
+		case BY_BEQZ:
+		case BY_BNEZ:
+			if (bb.var != null) {
+				if (isPrecolored(bb.var) || bb.var.reg != null
+						&& bb.var.equals(bb.var.reg.var)) {
+					bb.varReg = bb.var.reg;
+					return;
+				} else {
+					// the live temps are stored at the end of the block, after
+					// this load, so take a register none of them is in
+					Register reg = regs[0];
+					for (Register r : regs) {
+						if (r.var == null || r.var.reg != r || !bb.saves.containsKey(r.var)) {
+							reg = r;
+							break;
+						}
+					}
+					if (reg.var != null && reg.var.reg == reg && bb.saves.containsKey(reg.var)) {
+						Tac spill = Tac.genStore(reg.var, fp, context.createConstTemp(reg.var.offset));
+						record(spill);
+						bb.insertAfter(spill, tail);
+						tail = spill;
+						bb.saves.remove(reg.var);
+					}
+					bb.var.reg = reg;
+					if (!bb.var.isOffsetFixed()) {
+						context
+								.getOption()
+								.getErr()
+								.println(
+										bb.var
+												+ " may used before define during register allocation");
+						frameManager.findSlot(bb.var);
+					}
+					Tac load = Tac.genLoad(bb.var, fp, context
+							.createConstTemp(bb.var.offset));
+					record(load);
+					bb.insertAfter(load, tail);
+					bb.varReg = reg;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fill in `liveUntil`, walking the block backwards.
+	 */
+	private void computeLiveUntil() {
+		blockCount++;
+		firstId = bb.tacList == null ? bb.endId : bb.tacList.id;
+		liveUntil = new int[3 * (bb.endId - firstId)];
+		nextCall = new int[bb.endId - firstId + 1];
+		nextCall[bb.endId - firstId] = Integer.MAX_VALUE;
+		Tac last = bb.tacList;
+		while (last != null && last.next != null) {
+			last = last.next;
+		}
+		for (Tac tac = last; tac != null; tac = tac.prev) {
+			boolean call = tac.opc == Tac.Kind.DIRECT_CALL
+					|| tac.opc == Tac.Kind.INDIRECT_CALL;
+			nextCall[tac.id - firstId] = call ? tac.id
+					: nextCall[tac.id - firstId + 1];
+			int i = 3 * (tac.id - firstId);
+			liveUntil[i] = liveUntilAfter(tac, tac.op0);
+			liveUntil[i + 1] = liveUntilAfter(tac, tac.op1);
+			liveUntil[i + 2] = liveUntilAfter(tac, tac.op2);
+			Temp def = tac.def();
+			if (def != null) {
+				nextRead(def);
+				nextRead[def.index] = -1;
+			}
+			for (Temp use : tac.uses()) {
+				nextRead(use);
+				nextRead[use.index] = tac.id;
+			}
+		}
+	}
+
+	private int liveUntilAfter(Tac tac, Temp t) {
+		if (t == null || t.isConst || isPrecolored(t)) {
+			return tac.id;
+		}
+		int next = nextRead(t);
+		return next < 0 ? tac.id : next;
+	}
+
+	/**
+	 * @return `nextRead` of `t`, set first to what it is at the end of the
+	 *         block if it was not set in this block yet
+	 */
+	private int nextRead(Temp t) {
+		if (seen[t.index] != blockCount) {
+			seen[t.index] = blockCount;
+			if (t.equals(bb.var)) {
+				nextRead[t.index] = bb.endId;
+			} else if (bb.liveOut.contains(t)) {
+				nextRead[t.index] = bb.endId + 1;
+			} else {
+				nextRead[t.index] = -1;
+			}
+		}
+		return nextRead[t.index];
+	}
+
+	private void clear() {
+		clean.clear();
+		for (Register reg : regs) {
+			if (reg.var != null) {
+				reg.var = null;
+			}
+		}
+	}
+
+	/**
+	 * Remember which registers the operands of `tac` are in now; they may be
+	 * moved to other registers by later TACs of the block.
+	 */
+	private void record(Tac tac) {
+		tac.reg0 = tac.op0 == null ? null : tac.op0.reg;
+		tac.reg1 = tac.op1 == null ? null : tac.op1.reg;
+		tac.reg2 = tac.op2 == null ? null : tac.op2.reg;
+	}
+
+	private void bind(int r, Temp temp, int until) {
+		regs[r].var = temp;
+		temp.reg = regs[r];
+		regLiveUntil[r] = until;
+		used[r] = true;
+	}
+
+	private boolean isPrecolored(Temp t) {
+		return t.reg != null && !allocatable.contains(t.reg);
+	}
+
+	private void findReg(Tac tac, Temp temp, boolean read) {
+		if (isPrecolored(temp)) {
+			return;
+		}
+		int i = 3 * (tac.id - firstId);
+		int until = liveUntil[temp == tac.op0 ? i : temp == tac.op1 ? i + 1
+				: i + 2];
+
+		// already in reg
+		if (temp.reg != null) {
+			if (temp.equals(temp.reg.var)) {
+				for (int r = 0; r < regs.length; r++) {
+					if (regs[r] == temp.reg) {
+						regLiveUntil[r] = until;
+					}
+				}
+				return;
+			}
+		}
+
+		// find a reg do not need to spill; a value tac only reads is not
+		// needed once tac has read it
+		int dead = read ? tac.id : tac.id + 1;
+		// only the first call the value is live across is counted
+		double acrossCalls = nextCall[dead - firstId] >= until ? 0
+				: inLoop ? 10 : 1;
+		int free = -1;
+		int best = -1;
+		for (int r = 0; r < regs.length; r++) {
+			if (regs[r].var == null || regLiveUntil[r] < dead) {
+				int rank = RegisterPreference.rank(regs[r], used[r],
+						acrossCalls);
+				if (rank > best) {
+					free = r;
+					best = rank;
+				}
+			}
+		}
+		if (free >= 0) {
+			bind(free, temp, until);
+			if (read) {
+				load(tac, temp);
+			}
+			return;
+		}
+
+		// spill the value read furthest ahead, as Belady's MIN does, and of
+		// those one already in its slot, which needs no store; a value tac
+		// still has to read cannot make room for another one it reads
+		int victim = -1;
+		for (int r = 0; r < regs.length; r++) {
+			Temp t = regs[r].var;
+			if (read && isReadBy(tac, t)) {
+				continue;
+			}
+			if (victim < 0 || regLiveUntil[r] > regLiveUntil[victim]
+					|| regLiveUntil[r] == regLiveUntil[victim]
+					&& clean.contains(t) && !clean.contains(regs[victim].var)) {
+				victim = r;
+			}
+		}
+		Temp t = regs[victim].var;
+		frameManager.findSlot(t);
+		spill(tac, t);
+		bind(victim, temp, until);
+		if (read) {
+			load(tac, temp);
+		}
+	}
+
+	private void findRegForRead(Tac tac, Temp temp) {
+		if (temp.isConst) {
+			// an immediate, or `$zero`
+			return;
+		}
+		findReg(tac, temp, true);
+	}
+
+	private void spill(Tac tac, Temp temp) {
+		if (clean.contains(temp)) {
+			return;
+		}
+		Tac spill = Tac.genStore(temp, fp, context.createConstTemp(temp.offset));
+		record(spill);
+		bb.insertBefore(spill, tac);
+	}
+
+	private void load(Tac tac, Temp temp) {
+		if (!temp.isOffsetFixed()) {
+			context
+					.getOption()
+					.getErr()
+					.println(
+							temp
+									+ " may used before define during register allocation");
+			frameManager.findSlot(temp);
+		}
+		Tac load = Tac.genLoad(temp, fp, context.createConstTemp(temp.offset));
+		record(load);
+		bb.insertBefore(load, tac);
+		clean.add(temp);
+	}
+
+	private boolean isReadBy(Tac tac, Temp temp) {
+		for (Temp use : tac.uses()) {
+			if (use == temp) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void findRegForWrite(Tac tac, Temp temp) {
+		findReg(tac, temp, false);
+		clean.remove(temp);
+	}
+
+}
@@ -2,25 +2,41 @@ package decaf.backend;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
+import decaf.CompilationContext;
 import decaf.dataflow.BasicBlock;
 import decaf.dataflow.FlowGraph;
 import decaf.dataflow.BasicBlock.EndKind;
 import decaf.machdesc.Asm;
 import decaf.machdesc.MachineDescription;
+import decaf.machdesc.Register;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
 import decaf.tac.Label;
 import decaf.tac.Tac;
 import decaf.tac.Temp;
 import decaf.tac.VTable;
+import decaf.utils.Jobs;
 import decaf.utils.MiscUtils;
 
 public class Mips implements MachineDescription {
 
-	public static final MipsRegister[] REGS = new MipsRegister[] {
+	/**
+	 * The registers hold the allocator's state (`Register.var`), so each
+	 * function emitted has its own.
+	 */
+	private final MipsRegister[] regs = new MipsRegister[] {
 			new MipsRegister(MipsRegister.RegId.ZERO, "$zero"),// zero
 			new MipsRegister(MipsRegister.RegId.AT, "$at"), // assembler
 			// temporary
@@ -55,18 +71,66 @@ public class Mips implements MachineDescription {
 			new MipsRegister(MipsRegister.RegId.S6, "$s6"),
 			new MipsRegister(MipsRegister.RegId.S7, "$s7") };
 
-	public static final MipsRegister[] GENERAL_REGS;
-	static {
-		GENERAL_REGS = new MipsRegister[MipsRegister.RegId.S7.ordinal()
-				- MipsRegister.RegId.T0.ordinal()];
-		System.arraycopy(REGS, MipsRegister.RegId.T0.ordinal(), GENERAL_REGS,
-				0, GENERAL_REGS.length);
-	}
+	private MipsRegister[] generalRegs;
 
 	private RegisterAllocator regAllocator;
 
 	private MipsFrameManager frameManager;
 
+	private Temp fpTemp;
+
+	/**
+	 * The temps in `$a0`-`$a3`, which take the first four actuals of a call
+	 * to a function of the program; the intrinsics take theirs on the stack.
+	 */
+	private Temp[] argTemps = new Temp[ARG_REGS];
+
+	private static final int ARG_REGS = 4;
+
+	/**
+	 * The labels of the functions of the program.
+	 */
+	private Set<Label> functions;
+
+	/**
+	 * Stores and loads of stack slots the allocator added to the function,
+	 * saves around calls included.
+	 */
+	private int spills, reloads;
+
+	/**
+	 * The callee-saved registers the function uses -> the offsets of their
+	 * slots, where the prologue saves them and the epilogue restores them.
+	 */
+	private Map<Register, Integer> calleeSaves = new LinkedHashMap<Register, Integer>();
+
+	/**
+	 * The argument registers of the parameters that do not stay in them ->
+	 * those parameters, which the prologue stores to their slots.
+	 */
+	private Map<Register, Temp> homes = new LinkedHashMap<Register, Temp>();
+
+	/**
+	 * Whether temps never live at the same time share stack slots.
+	 */
+	private boolean colorSlots;
+
+	/**
+	 * Null unless the peephole optimization is on.
+	 */
+	private MipsPeephole peephole;
+
+	/**
+	 * The numbers of the blocks of the function in the order they are laid
+	 * out (see `BlockLayout`).
+	 */
+	private int[] layout;
+
+	/**
+	 * The blocks of the function as they are laid out, with their labels.
+	 */
+	private List<Asm> trace = new ArrayList<Asm>();
+
 	private Map<String, String> stringConst;
 
 	private String getStringConstLabel(String s) {
@@ -80,35 +144,131 @@ public class Mips implements MachineDescription {
 
 	private PrintWriter output;
 
-	public Mips() {
-		frameManager = new MipsFrameManager();
-		Temp fpTemp = Temp.createTempI4();
-		fpTemp.reg = REGS[MipsRegister.RegId.FP.ordinal()];
-		regAllocator = new RegisterAllocator(fpTemp, frameManager, GENERAL_REGS);
+	private CompilationContext context;
+
+	public Mips(CompilationContext context) {
+		this.context = context;
 		stringConst = new HashMap<String, String>();
 	}
 
+	/**
+	 * Code generator of one function of `parent`, with registers, an
+	 * allocator and a frame of its own, so that functions can be done at the
+	 * same time.
+	 * The string constants are those of `parent`, only read.
+	 */
+	private Mips(Mips parent, FlowGraph graph) {
+		context = parent.context;
+		stringConst = parent.stringConst;
+		functions = parent.functions;
+		generalRegs = new MipsRegister[MipsRegister.RegId.S7.ordinal()
+				- MipsRegister.RegId.T0.ordinal() + 1];
+		System.arraycopy(regs, MipsRegister.RegId.T0.ordinal(), generalRegs,
+				0, generalRegs.length);
+		frameManager = new MipsFrameManager();
+		fpTemp = graph.createTempI4();
+		fpTemp.reg = regs[MipsRegister.RegId.FP.ordinal()];
+		for (int i = 0; i < ARG_REGS; i++) {
+			argTemps[i] = graph.createTempI4();
+			argTemps[i].reg = regs[MipsRegister.RegId.A0.ordinal() + i];
+		}
+		switch (context.getOption().getAllocator()) {
+		case COLOR:
+			regAllocator = new GraphColoringAllocator(fpTemp, frameManager,
+					generalRegs, context);
+			break;
+		case LINEAR:
+			regAllocator = new LinearScanAllocator(fpTemp, frameManager,
+					generalRegs, context);
+			break;
+		default:
+			regAllocator = new LocalAllocator(fpTemp, frameManager,
+					generalRegs, context);
+			break;
+		}
+		if (context.getOption().isPassEnabled("peephole")) {
+			peephole = new MipsPeephole();
+		}
+		colorSlots = context.getOption().isPassEnabled("slots");
+	}
+
 	@Override
 	public void emitAsm(List<FlowGraph> gs) {
 		emit(null, ".text", null);
+		functions = new HashSet<Label>();
 		for (FlowGraph g : gs) {
-			regAllocator.reset();
-			for (BasicBlock bb : g) {
-				bb.label = Label.createLabel();
-			}
+			functions.add(g.getFuncty().label);
 			for (BasicBlock bb : g) {
 				if (bb.cancelled) {
 					continue;
 				}
-				regAllocator.alloc(bb);
-				genAsmForBB(bb);
-				for (Temp t : bb.saves) {
-					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", t.reg,
-							t.offset, "$fp"));
+				for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+					if (tac.opc == Tac.Kind.LOAD_STR_CONST) {
+						getStringConstLabel(tac.str);
+					}
+				}
+			}
+		}
+		List<Callable<Mips>> jobs = new ArrayList<Callable<Mips>>();
+		for (final FlowGraph g : gs) {
+			jobs.add(new Callable<Mips>() {
+
+				@Override
+				public Mips call() {
+					Mips function = new Mips(Mips.this, g);
+					function.genAsm(g);
+					return function;
+				}
+
+			});
+		}
+		List<Mips> functions = Jobs.run(jobs, context.getOption().getJobs());
+		// labels and strings are numbered in the order of the functions,
+		// whichever function was done first; the allocator may have added
+		// blocks
+		for (FlowGraph g : gs) {
+			for (BasicBlock bb : g) {
+				bb.label = context.createLabel();
+			}
+		}
+		for (int i = 0; i < gs.size(); i++) {
+			Mips function = functions.get(i);
+			if (context.getOption().showStatistics()) {
+				context.getOption().getErr().println(
+						gs.get(i).getFuncty().label.name + ": " + function.spills
+								+ " spills, " + function.reloads + " reloads, "
+								+ function.frameManager.getSlotCount()
+								+ " stack slots");
+			}
+			function.output = output;
+			function.emitProlog(gs.get(i).getFuncty().label,
+					function.frameManager.getStackFrameSize());
+			for (Entry<Register, Integer> save : function.calleeSaves
+					.entrySet()) {
+				function.emit(null, String.format(MipsAsm.FORMAT4, "sw",
+						save.getKey(), save.getValue(), "$fp"), null);
+			}
+			for (Entry<Register, Temp> home : function.homes.entrySet()) {
+				function.emit(null, String.format(MipsAsm.FORMAT4, "sw",
+						home.getKey(), home.getValue().offset, "$fp"), null);
+			}
+			function.emitTrace(gs.get(i));
+			if (function.peephole != null) {
+				function.peephole.optimize(function.trace);
+				if (context.getOption().showStatistics()) {
+					context.getOption().getErr().println(
+							gs.get(i).getFuncty().label.name
+									+ ": peephole removed "
+									+ function.peephole.summary());
+				}
+			}
+			for (Asm asm : function.trace) {
+				if (((MipsAsm) asm).isLabel()) {
+					function.emit(((MipsAsm) asm).getLabel(), null, null);
+				} else {
+					function.emit(null, asm.toString(), null);
 				}
 			}
-			emitProlog(g.getFuncty().label, frameManager.getStackFrameSize());
-			emitTrace(g.getBlock(0), g);
 			output.println();
 		}
 		for (int i = 0; i < 3; i++) {
@@ -117,6 +277,167 @@ public class Mips implements MachineDescription {
 		emitStringConst();
 	}
 
+	private void genAsm(FlowGraph g) {
+		ImmediateSelection.select(g, context);
+		passArguments(g);
+		receiveParameters(g);
+		regAllocator.alloc(g);
+		if (colorSlots) {
+			frameManager.colorSlots(g, fpTemp, homes.values());
+		}
+		for (BasicBlock bb : g) {
+			if (bb.cancelled) {
+				continue;
+			}
+			genAsmForBB(bb);
+			for (Entry<Temp, Register> save : bb.saves.entrySet()) {
+				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", save.getValue(),
+						save.getKey().offset, "$fp"));
+			}
+			countSpills(bb);
+			if (peephole != null) {
+				peephole.optimize(bb.getAsms());
+			}
+		}
+		findCalleeSaves(g);
+		layout = BlockLayout.layout(g);
+	}
+
+	/**
+	 * Have the `PARM`s of the first four actuals of each call to a function
+	 * of the program put them in the argument registers.
+	 */
+	private void passArguments(FlowGraph g) {
+		List<Tac> parms = new ArrayList<Tac>();
+		for (BasicBlock bb : g) {
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				if (tac.opc == Tac.Kind.PARM) {
+					parms.add(tac);
+				} else if (tac.opc == Tac.Kind.INDIRECT_CALL
+						|| tac.opc == Tac.Kind.DIRECT_CALL) {
+					if (tac.opc == Tac.Kind.INDIRECT_CALL
+							|| functions.contains(tac.label)) {
+						for (int i = 0; i < parms.size() && i < ARG_REGS; i++) {
+							parms.get(i).op1 = argTemps[i];
+						}
+					}
+					parms.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pre-color the parameters passed in registers that can stay there, and
+	 * give the others a slot the prologue stores them to; those after the
+	 * fourth are on the stack, where the actuals in registers take no space.
+	 *
+	 * A parameter stays in its register unless it is live after a call,
+	 * which may change the argument registers, or after a `PARM` that puts
+	 * another value in its register.
+	 */
+	private void receiveParameters(FlowGraph g) {
+		Function func = g.getFuncty().sym;
+		if (func == null) {
+			return;
+		}
+		Temp[] params = new Temp[ARG_REGS];
+		Iterator<Symbol> iter = func.getAssociatedScope().iterator();
+		while (iter.hasNext()) {
+			Temp t = ((Variable) iter.next()).getTemp();
+			int i = t.offset / OffsetCounter.WORD_SIZE - 1;
+			if (i >= ARG_REGS) {
+				t.offset -= ARG_REGS * OffsetCounter.WORD_SIZE;
+			} else if (g.getTemps().contains(t)) {
+				params[i] = t;
+			}
+		}
+		int leave = 0;
+		for (BasicBlock bb : g) {
+			int live = 0;
+			for (int i = 0; i < ARG_REGS; i++) {
+				if (params[i] != null && (bb.liveOut.contains(params[i])
+						|| params[i].equals(bb.var))) {
+					live |= 1 << i;
+				}
+			}
+			Tac tac = bb.tacList;
+			while (tac != null && tac.next != null) {
+				tac = tac.next;
+			}
+			for (; tac != null; tac = tac.prev) {
+				if (tac.opc == Tac.Kind.INDIRECT_CALL
+						|| tac.opc == Tac.Kind.DIRECT_CALL) {
+					leave |= live;
+				}
+				for (int i = 0; i < ARG_REGS; i++) {
+					if (tac.opc == Tac.Kind.PARM && tac.op1 == argTemps[i]) {
+						leave |= live & 1 << i;
+					}
+					if (params[i] == null) {
+						continue;
+					}
+					if (params[i].equals(tac.def())) {
+						live &= ~(1 << i);
+					}
+					for (Temp use : tac.uses()) {
+						if (params[i].equals(use)) {
+							live |= 1 << i;
+						}
+					}
+				}
+			}
+		}
+		for (int i = 0; i < ARG_REGS; i++) {
+			if (params[i] == null) {
+				continue;
+			}
+			Register reg = regs[MipsRegister.RegId.A0.ordinal() + i];
+			if ((leave & 1 << i) == 0) {
+				params[i].reg = reg;
+			} else {
+				params[i].offset = frameManager
+						.newSlot(OffsetCounter.WORD_SIZE);
+				homes.put(reg, params[i]);
+			}
+		}
+	}
+
+	private void findCalleeSaves(FlowGraph g) {
+		Set<Register> used = new HashSet<Register>();
+		for (BasicBlock bb : g) {
+			if (bb.cancelled) {
+				continue;
+			}
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				used.add(tac.reg0);
+				used.add(tac.reg1);
+				used.add(tac.reg2);
+			}
+			used.add(bb.varReg);
+		}
+		for (Register reg : generalRegs) {
+			if (reg.isCalleeSaved() && used.contains(reg)) {
+				calleeSaves.put(reg, frameManager
+						.newSlot(OffsetCounter.WORD_SIZE));
+			}
+		}
+	}
+
+	private void countSpills(BasicBlock bb) {
+		spills += bb.saves.size();
+		for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+			if (tac.opc == Tac.Kind.STORE && tac.op1 == fpTemp) {
+				spills++;
+			} else if (tac.opc == Tac.Kind.LOAD && tac.op1 == fpTemp) {
+				reloads++;
+			} else if (tac.saves != null) {
+				spills += tac.saves.size();
+				reloads += tac.saves.size();
+			}
+		}
+	}
+
 	private void emitStringConst() {
 		emit(null, ".data", null);
 		for (Entry<String, String> e : stringConst.entrySet()) {
@@ -128,96 +449,114 @@ public class Mips implements MachineDescription {
 		for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
 			switch (tac.opc) {
 			case ADD:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "add", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				if (tac.op2.isConst) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "addi", tac.reg0,
+							reg(tac.op1, tac.reg1), tac.op2.value));
+				} else {
+					genBinary(bb, tac, "add");
+				}
 				break;
 			case SUB:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "sub", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "sub");
 				break;
 			case MUL:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "mul", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				if (tac.op2.isConst && tac.op2.value != 0) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "sll", tac.reg0,
+							reg(tac.op1, tac.reg1), Integer
+									.numberOfTrailingZeros(tac.op2.value)));
+				} else {
+					genBinary(bb, tac, "mul");
+				}
 				break;
 			case DIV:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "div", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "div");
 				break;
 			case MOD:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "rem", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "rem");
 				break;
 			case LAND:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "and", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				if (tac.op2.isConst) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "andi", tac.reg0,
+							reg(tac.op1, tac.reg1), tac.op2.value));
+				} else {
+					genBinary(bb, tac, "and");
+				}
 				break;
 			case LOR:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "or", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				if (tac.op2.isConst) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "ori", tac.reg0,
+							reg(tac.op1, tac.reg1), tac.op2.value));
+				} else {
+					genBinary(bb, tac, "or");
+				}
 				break;
 			case GTR:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "sgt", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "sgt");
 				break;
 			case GEQ:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "sge", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "sge");
 				break;
 			case EQU:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "seq", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "seq");
 				break;
 			case NEQ:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "sne", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "sne");
 				break;
 			case LEQ:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "sle", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				genBinary(bb, tac, "sle");
 				break;
 			case LES:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "slt", tac.op0.reg,
-						tac.op1.reg, tac.op2.reg));
+				if (tac.op2.isConst) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "slti", tac.reg0,
+							reg(tac.op1, tac.reg1), tac.op2.value));
+				} else {
+					genBinary(bb, tac, "slt");
+				}
 				break;
 			case NEG:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "neg", tac.op0.reg,
-						tac.op1.reg));
+				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "neg", tac.reg0,
+						tac.reg1));
 				break;
 			case LNOT:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "not", tac.op0.reg,
-						tac.op1.reg));
+				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "not", tac.reg0,
+						tac.reg1));
 				break;
 			case ASSIGN:
-				if (tac.op0.reg != tac.op1.reg) {
+				if (tac.reg0 != tac.reg1) {
 					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "move",
-							tac.op0.reg, tac.op1.reg));
+							tac.reg0, tac.reg1));
 				}
 				break;
 			case LOAD_VTBL:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "la", tac.op0.reg,
+				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "la", tac.reg0,
 						tac.vt.name));
 				break;
 			case LOAD_IMM4:
 				if (!tac.op1.isConst) {
 					throw new IllegalArgumentException();
 				}
-				int high = tac.op1.value >> 16;
-				int low = tac.op1.value & 0x0000FFFF;
+				int value = tac.op1.value;
+				int high = value >>> 16;
+				int low = value & 0x0000FFFF;
 				if (high == 0) {
 					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "li",
-							tac.op0.reg, low));
+							tac.reg0, low));
+				} else if (value >= Short.MIN_VALUE && value < 0) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "li",
+							tac.reg0, value));
 				} else {
 					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "lui",
-							tac.op0.reg, high));
+							tac.reg0, high));
 					if (low != 0) {
-						bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "addiu",
-								tac.op0.reg, tac.op0.reg, low));
+						// ori, as addiu would sign-extend the low half
+						bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, "ori",
+								tac.reg0, tac.reg0, low));
 					}
 				}
 				break;
 			case LOAD_STR_CONST:
 				String label = getStringConstLabel(tac.str);
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "la", tac.op0.reg,
+				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "la", tac.reg0,
 						label));
 				break;
 			case INDIRECT_CALL:
@@ -225,16 +564,21 @@ public class Mips implements MachineDescription {
 				genAsmForCall(bb, tac);
 				break;
 			case PARM:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", tac.op0.reg,
-						tac.op1.value, "$sp"));
+				if (tac.op1.isConst) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", tac.reg0,
+							tac.op1.value, "$sp"));
+				} else if (tac.reg1 != tac.reg0) {
+					bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "move", tac.reg1,
+							tac.reg0));
+				}
 				break;
 			case LOAD:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "lw", tac.op0.reg,
-						tac.op2.value, tac.op1.reg));
+				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "lw", tac.reg0,
+						tac.op2.value, tac.reg1));
 				break;
 			case STORE:
-				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", tac.op0.reg,
-						tac.op2.value, tac.op1.reg));
+				bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", reg(tac.op0,
+						tac.reg0), tac.op2.value, tac.reg1));
 				break;
 			case BRANCH:
 			case BEQZ:
@@ -245,77 +589,96 @@ public class Mips implements MachineDescription {
 		}
 	}
 
+	private void genBinary(BasicBlock bb, Tac tac, String opc) {
+		bb.appendAsm(new MipsAsm(MipsAsm.FORMAT3, opc, tac.reg0, reg(tac.op1,
+				tac.reg1), reg(tac.op2, tac.reg2)));
+	}
+
+	/**
+	 * @return `reg`, which holds `temp`, or `$zero` if `temp` is the
+	 *         constant 0 (see `ImmediateSelection`)
+	 */
+	private Register reg(Temp temp, Register reg) {
+		return temp.isConst ? regs[MipsRegister.RegId.ZERO.ordinal()] : reg;
+	}
+
 	private void genAsmForCall(BasicBlock bb, Tac call) {
-		for (Temp t : call.saves) {
-			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", t.reg, t.offset,
-					"$fp"));
+		for (Entry<Temp, Register> save : call.saves.entrySet()) {
+			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "sw", save.getValue(),
+					save.getKey().offset, "$fp"));
 		}
 		if (call.opc == Tac.Kind.DIRECT_CALL) {
 			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT1, "jal", call.label));
 		} else {
-			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT1, "jalr", call.op1.reg));
+			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT1, "jalr", call.reg1));
 		}
 		if (call.op0 != null) {
-			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "move", call.op0.reg,
+			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT2, "move", call.reg0,
 					"$v0"));
 		}
-		for (Temp t : call.saves) {
-			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "lw", t.reg, t.offset,
-					"$fp"));
+		for (Entry<Temp, Register> save : call.saves.entrySet()) {
+			bb.appendAsm(new MipsAsm(MipsAsm.FORMAT4, "lw", save.getValue(),
+					save.getKey().offset, "$fp"));
 		}
 	}
 
-	private void emitTrace(BasicBlock bb, FlowGraph graph) {
-		if (bb.mark) {
-			return;
-		}
-		bb.mark = true;
-		emit(bb.label.name, null, null);
-		for (Asm asm : bb.getAsms()) {
-			emit(null, asm.toString(), null);
+	private void emitTrace(FlowGraph graph) {
+		for (int i = 0; i < layout.length; i++) {
+			BasicBlock bb = graph.getBlock(layout[i]);
+			int fallThrough = i + 1 < layout.length ? layout[i + 1] : -1;
+			emitBlock(bb, graph, fallThrough);
 		}
-		BasicBlock directNext;
+	}
+
+	/**
+	 * Emit `bb`, which `fallThrough` follows in the layout (-1 if none).
+	 */
+	private void emitBlock(BasicBlock bb, FlowGraph graph, int fallThrough) {
+		trace.add(MipsAsm.label(bb.label.name));
+		trace.addAll(bb.getAsms());
 		switch (bb.endKind) {
 		case BY_BRANCH:
-			directNext = graph.getBlock(bb.next[0]);
-			if (directNext.mark) {
-				emit(null, String.format(MipsAsm.FORMAT1, "b",
-						directNext.label.name), null);
-			} else {
-				emitTrace(directNext, graph);
+			if (bb.next[0] != fallThrough) {
+				trace.add(new MipsAsm(MipsAsm.FORMAT1, "b", graph
+						.getBlock(bb.next[0]).label.name));
 			}
 			break;
 		case BY_BEQZ:
 		case BY_BNEZ:
-			if (bb.endKind == EndKind.BY_BEQZ) {
-				emit(null, String.format(MipsAsm.FORMAT2, "beqz", bb.varReg,
-						graph.getBlock(bb.next[0]).label.name), null);
-			} else {
-				emit(null, String.format(MipsAsm.FORMAT3, "bne", bb.varReg,
-						"$zero", graph.getBlock(bb.next[0]).label.name), null);
+			boolean ifZero = bb.endKind == EndKind.BY_BEQZ;
+			int taken = bb.next[0];
+			int other = bb.next[1];
+			if (taken == fallThrough && other != fallThrough) {
+				// fall through into the target, branching on the opposite
+				ifZero = !ifZero;
+				taken = bb.next[1];
+				other = bb.next[0];
 			}
-
-			directNext = graph.getBlock(bb.next[1]);
-			if (directNext.mark) {
-				emit(null, String.format(MipsAsm.FORMAT1, "b",
-						directNext.label.name), null);
+			if (ifZero) {
+				trace.add(new MipsAsm(MipsAsm.FORMAT2, "beqz", bb.varReg,
+						graph.getBlock(taken).label.name));
 			} else {
-				emitTrace(directNext, graph);
+				trace.add(new MipsAsm(MipsAsm.FORMAT3, "bne", bb.varReg,
+						"$zero", graph.getBlock(taken).label.name));
+			}
+			if (other != fallThrough) {
+				trace.add(new MipsAsm(MipsAsm.FORMAT1, "b", graph
+						.getBlock(other).label.name));
 			}
-			emitTrace(graph.getBlock(bb.next[0]), graph);
 			break;
 		case BY_RETURN:
 			if (bb.var != null) {
-				emit(null, String.format(MipsAsm.FORMAT2, "move", "$v0",
-						bb.varReg), null);
-			}
-			emit(null, String.format(MipsAsm.FORMAT2, "move", "$sp", "$fp"),
-					null);
-			emit(null, String.format(MipsAsm.FORMAT2, "lw", "$ra", "-4($fp)"),
-					null);
-			emit(null, String.format(MipsAsm.FORMAT2, "lw", "$fp", "0($fp)"),
-					null);
-			emit(null, String.format(MipsAsm.FORMAT1, "jr", "$ra"), null);
+				trace.add(new MipsAsm(MipsAsm.FORMAT2, "move", "$v0",
+						bb.varReg));
+			}
+			for (Entry<Register, Integer> save : calleeSaves.entrySet()) {
+				trace.add(new MipsAsm(MipsAsm.FORMAT4, "lw", save.getKey(),
+						save.getValue(), "$fp"));
+			}
+			trace.add(new MipsAsm(MipsAsm.FORMAT2, "move", "$sp", "$fp"));
+			trace.add(new MipsAsm(MipsAsm.FORMAT4, "lw", "$ra", -4, "$fp"));
+			trace.add(new MipsAsm(MipsAsm.FORMAT4, "lw", "$fp", 0, "$fp"));
+			trace.add(new MipsAsm(MipsAsm.FORMAT1, "jr", "$ra"));
 			break;
 		}
 	}
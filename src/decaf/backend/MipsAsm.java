@@ -16,7 +16,21 @@ public class MipsAsm extends Asm {
 
 	private String asm;
 
+	private String format;
+
+	private String opc;
+
+	private String[] ops;
+
+	private String label;
+
 	public MipsAsm(String format, String opc, Object... ops) {
+		this.format = format;
+		this.opc = opc;
+		this.ops = new String[ops.length];
+		for (int i = 0; i < ops.length; i++) {
+			this.ops[i] = String.valueOf(ops[i]);
+		}
 		switch (ops.length) {
 		case 0:
 			asm = String.format(format, opc);
@@ -35,6 +49,46 @@ public class MipsAsm extends Asm {
 		}
 	}
 
+	private MipsAsm(String label) {
+		this.label = label;
+		ops = new String[0];
+		asm = label + ":";
+	}
+
+	/**
+	 * @return the label `name` in a trace of instructions
+	 */
+	public static MipsAsm label(String name) {
+		return new MipsAsm(name);
+	}
+
+	public boolean isLabel() {
+		return label != null;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public String getOpc() {
+		return opc;
+	}
+
+	public int getOperandCount() {
+		return ops.length;
+	}
+
+	/**
+	 * @return operand `i` as it is printed, e.g. the name of a register
+	 */
+	public String getOperand(int i) {
+		return ops[i];
+	}
+
 	@Override
 	public String toString() {
 		return asm;
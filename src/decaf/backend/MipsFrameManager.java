@@ -1,7 +1,19 @@
 package decaf.backend;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.DataflowProblem;
+import decaf.dataflow.DataflowSolver;
+import decaf.dataflow.FlowGraph;
+import decaf.tac.Tac;
 import decaf.tac.Temp;
 
 public class MipsFrameManager {
@@ -14,6 +26,19 @@ public class MipsFrameManager {
 
 	private int currentActualSize;
 
+	private OffsetCounter localOffsets = new OffsetCounter(
+			OffsetCounter.Kind.LOCAL);
+
+	/**
+	 * The offsets of the slots handed out, in order; `colorSlots` keeps a
+	 * prefix of them.
+	 */
+	private List<Integer> slots = new ArrayList<Integer>();
+
+	public MipsFrameManager() {
+		reset();
+	}
+
 	public int getStackFrameSize() {
 		return maxSize + maxActualSize;
 	}
@@ -21,7 +46,8 @@ public class MipsFrameManager {
 	public void reset() {
 		maxSize = currentSize = 0;
 		maxActualSize = currentActualSize = 4;
-		OffsetCounter.LOCAL_OFFSET_COUNTER.reset();
+		localOffsets.reset();
+		slots.clear();
 	}
 
 	public void findSlot(Set<Temp> saves) {
@@ -34,13 +60,164 @@ public class MipsFrameManager {
 		if (temp.isOffsetFixed()) {
 			return;
 		}
-		temp.offset = OffsetCounter.LOCAL_OFFSET_COUNTER.next(temp.size);
-		currentSize += temp.size;
+		temp.offset = newSlot(temp.size);
+	}
+
+	/**
+	 * @return the offset from `$fp` of a new slot of `size` bytes
+	 */
+	public int newSlot(int size) {
+		int offset = localOffsets.next(size);
+		currentSize += size;
 		if (currentSize > maxSize) {
 			maxSize = currentSize;
 		}
+		slots.add(offset);
+		return offset;
+	}
+
+	/**
+	 * @return the number of slots of the frame, the callee-saved registers
+	 *         and the parameters stored on entry included
+	 */
+	public int getSlotCount() {
+		return slots.size();
+	}
+
+	/**
+	 * Let temps that are never live at the same time share a slot, once the
+	 * registers of `graph` are allocated.
+	 *
+	 * The slots are colored like registers: a slot is live from a store to
+	 * it to the loads that may read that store, the stores and loads around
+	 * the calls (`Tac.saves`) and at the ends of the blocks
+	 * (`BasicBlock.saves`) included, and two slots interfere if one is
+	 * stored while the other is live. The slots of `entryStores` are stored
+	 * before the first block, and interfere with each other. Each slot is
+	 * given the first slot of the frame none of its neighbours has, and the
+	 * offsets of the temps and of the loads and stores are changed to match.
+	 * Slots handed out afterwards follow those kept. Every slot is a word.
+	 */
+	public void colorSlots(FlowGraph graph, Temp fp,
+			Collection<Temp> entryStores) {
+		Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+		for (int i = 0; i < slots.size(); i++) {
+			index.put(slots.get(i), i);
+		}
+		int n = slots.size();
+		if (n == 0) {
+			return;
+		}
+		LiveSlots problem = new LiveSlots(fp, index);
+		DataflowSolver solver = new DataflowSolver(graph, problem);
+		BitSet[] interferes = new BitSet[n];
+		for (int i = 0; i < n; i++) {
+			interferes[i] = new BitSet(n);
+		}
+		BitSet live = new BitSet(n);
+		BitSet stored = new BitSet(n);
+		for (BasicBlock bb : graph) {
+			if (bb.cancelled) {
+				continue;
+			}
+			live.clear();
+			live.or(solver.getOut(bb.bbNum));
+			problem.stores(bb.saves, stored);
+			store(interferes, stored, live);
+			Tac tac = bb.tacList;
+			while (tac != null && tac.next != null) {
+				tac = tac.next;
+			}
+			for (; tac != null; tac = tac.prev) {
+				int slot = problem.slot(tac);
+				if (slot >= 0 && tac.opc == Tac.Kind.LOAD) {
+					live.set(slot);
+				} else if (slot >= 0) {
+					stored.clear();
+					stored.set(slot);
+					store(interferes, stored, live);
+				} else if (tac.saves != null) {
+					// stored before the call, loaded after it
+					problem.stores(tac.saves, stored);
+					live.or(stored);
+					store(interferes, stored, live);
+				}
+			}
+			if (bb.bbNum == 0) {
+				problem.stores(entryStores, stored);
+				live.or(stored);
+				store(interferes, stored, live);
+			}
+		}
+
+		int[] color = new int[n];
+		int colors = 0;
+		BitSet taken = new BitSet(n);
+		for (int i = 0; i < n; i++) {
+			taken.clear();
+			for (int j = interferes[i].nextSetBit(0); j >= 0 && j < i; j = interferes[i]
+					.nextSetBit(j + 1)) {
+				taken.set(color[j]);
+			}
+			color[i] = taken.nextClearBit(0);
+			colors = Math.max(colors, color[i] + 1);
+		}
+		if (colors == n) {
+			return;
+		}
+
+		Set<Temp> temps = new HashSet<Temp>(entryStores);
+		for (BasicBlock bb : graph) {
+			if (bb.cancelled) {
+				continue;
+			}
+			temps.addAll(bb.saves.keySet());
+			for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+				int slot = problem.slot(tac);
+				if (slot >= 0) {
+					tac.op2 = graph.getContext().createConstTemp(
+							slots.get(color[slot]));
+					temps.add(tac.op0);
+				}
+				if (tac.saves != null) {
+					temps.addAll(tac.saves.keySet());
+				}
+			}
+		}
+		for (Temp t : temps) {
+			Integer slot = index.get(t.offset);
+			if (slot != null) {
+				t.offset = slots.get(color[slot]);
+			}
+		}
+
+		int last = slots.get(colors - 1);
+		slots.subList(colors, n).clear();
+		localOffsets.set(last);
+		localOffsets.next(OffsetCounter.WORD_SIZE);
+		maxSize = currentSize = colors * OffsetCounter.WORD_SIZE;
+	}
+
+	/**
+	 * Make each slot of `stored` interfere with the others live after it,
+	 * and kill them.
+	 */
+	private static void store(BitSet[] interferes, BitSet stored, BitSet live) {
+		for (int s = stored.nextSetBit(0); s >= 0; s = stored.nextSetBit(s + 1)) {
+			for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+				if (l != s) {
+					interferes[s].set(l);
+					interferes[l].set(s);
+				}
+			}
+		}
+		live.andNot(stored);
 	}
 
+	/**
+	 * @return the offset from `$sp` of the next actual passed on the stack,
+	 *         the ones passed in registers taking no space
+	 */
 	public int addActual(Temp temp) {
 		int offset = currentActualSize;
 		currentActualSize += temp.size;
@@ -54,4 +231,93 @@ public class MipsFrameManager {
 		currentActualSize = 4;
 	}
 
+	/**
+	 * Live slots: a backward union problem whose facts are the slots handed
+	 * out, numbered in order. A load from a slot generates it, and a store
+	 * to it kills it.
+	 */
+	private static class LiveSlots extends DataflowProblem {
+
+		private Temp fp;
+
+		private Map<Integer, Integer> index;
+
+		private BitSet saved = new BitSet();
+
+		LiveSlots(Temp fp, Map<Integer, Integer> index) {
+			this.fp = fp;
+			this.index = index;
+		}
+
+		/**
+		 * @return the slot `tac` loads or stores, or -1
+		 */
+		int slot(Tac tac) {
+			if ((tac.opc == Tac.Kind.LOAD || tac.opc == Tac.Kind.STORE)
+					&& tac.op1 == fp) {
+				Integer slot = index.get(tac.op2.value);
+				if (slot != null) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		void stores(Map<Temp, ?> saves, BitSet stored) {
+			if (saves == null) {
+				stored.clear();
+			} else {
+				stores(saves.keySet(), stored);
+			}
+		}
+
+		/**
+		 * Set the slots of `temps` in `stored`. The parameters passed on the
+		 * stack are in the frame of the caller, which has no slot here.
+		 */
+		void stores(Collection<Temp> temps, BitSet stored) {
+			stored.clear();
+			for (Temp t : temps) {
+				Integer slot = index.get(t.offset);
+				if (slot != null) {
+					stored.set(slot);
+				}
+			}
+		}
+
+		@Override
+		public Direction direction() {
+			return Direction.BACKWARD;
+		}
+
+		@Override
+		public Meet meet() {
+			return Meet.UNION;
+		}
+
+		@Override
+		public int universe() {
+			return index.size();
+		}
+
+		@Override
+		public void transfer(Tac tac, BitSet gen, BitSet kill) {
+			int slot = slot(tac);
+			if (slot >= 0 && tac.opc == Tac.Kind.LOAD) {
+				gen.set(slot);
+			} else if (slot >= 0) {
+				kill.set(slot);
+			} else if (tac.saves != null) {
+				stores(tac.saves, saved);
+				kill.or(saved);
+			}
+		}
+
+		@Override
+		public void transferEnd(BasicBlock bb, BitSet gen, BitSet kill) {
+			stores(bb.saves, saved);
+			kill.or(saved);
+		}
+	}
+
 }
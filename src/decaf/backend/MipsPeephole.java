@@ -0,0 +1,262 @@
+package decaf.backend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.machdesc.Asm;
+
+/**
+ * Peephole optimization of the instructions of one function, run on those
+ * of each block and again on the trace the blocks are laid out in.
+ *
+ * The instructions are gone through in order, and each rule of `Rule` looks
+ * at a window of those kept so far that ends with the last one, removing
+ * it or the one before, or replacing it by a cheaper one. A label no branch
+ * goes to is only reached from the instruction before it, so windows do not
+ * stop there, and values kept in registers are found across such blocks.
+ */
+class MipsPeephole {
+
+	/**
+	 * How far back a load looks for the value it loads.
+	 */
+	private static final int LOAD_WINDOW = 16;
+
+	enum Rule {
+		/**
+		 * `move r, r`.
+		 */
+		MOVE_TO_SELF("moves to self", 1) {
+			@Override
+			boolean apply(MipsPeephole p, List<Asm> code, int i) {
+				MipsAsm asm = (MipsAsm) code.get(i);
+				if ("move".equals(asm.getOpc())
+						&& asm.getOperand(0).equals(asm.getOperand(1))) {
+					code.remove(i);
+					return true;
+				}
+				return false;
+			}
+		},
+
+		/**
+		 * A branch to the label right after it, which is reached either way.
+		 */
+		BRANCH_TO_NEXT("branches to the next label", 2) {
+			@Override
+			boolean apply(MipsPeephole p, List<Asm> code, int i) {
+				MipsAsm label = (MipsAsm) code.get(i);
+				if (!label.isLabel() || i == 0) {
+					return false;
+				}
+				MipsAsm branch = (MipsAsm) code.get(i - 1);
+				if (!isBranch(branch)
+						|| !target(branch).equals(label.getLabel())) {
+					return false;
+				}
+				code.remove(i - 1);
+				p.targets.put(label.getLabel(),
+						p.targets.get(label.getLabel()) - 1);
+				return true;
+			}
+		},
+
+		/**
+		 * `lw` of the slot a register was just stored to.
+		 */
+		RELOAD_AFTER_STORE("reloads after a store", LOAD_WINDOW) {
+			@Override
+			boolean apply(MipsPeephole p, List<Asm> code, int i) {
+				return p.reuse(code, i, "sw", window);
+			}
+		},
+
+		/**
+		 * `lw` of the word a register was just loaded from.
+		 */
+		LOAD_IN_REGISTER("loads of a value in a register", LOAD_WINDOW) {
+			@Override
+			boolean apply(MipsPeephole p, List<Asm> code, int i) {
+				return p.reuse(code, i, "lw", window);
+			}
+		};
+
+		final String description;
+
+		/**
+		 * The number of instructions the rule looks at.
+		 */
+		final int window;
+
+		private Rule(String description, int window) {
+			this.description = description;
+			this.window = window;
+		}
+
+		/**
+		 * Rewrite the instructions ending with `code[i]`, the last one.
+		 *
+		 * @return whether an instruction was removed or replaced
+		 */
+		abstract boolean apply(MipsPeephole p, List<Asm> code, int i);
+	}
+
+	/**
+	 * `Rule.ordinal()` -> the instructions it removed, a load replaced by a
+	 * move counting as removed.
+	 */
+	private int[] removed = new int[Rule.values().length];
+
+	/**
+	 * Label -> the number of branches to it in the code being optimized.
+	 */
+	private Map<String, Integer> targets;
+
+	/**
+	 * Optimize `code`, which may be a trace of several blocks with their
+	 * labels and branches.
+	 */
+	void optimize(List<Asm> code) {
+		targets = new HashMap<String, Integer>();
+		for (Asm asm : code) {
+			if (isBranch((MipsAsm) asm)) {
+				String label = target((MipsAsm) asm);
+				Integer count = targets.get(label);
+				targets.put(label, count == null ? 1 : count + 1);
+			}
+		}
+		List<Asm> kept = new ArrayList<Asm>(code.size());
+		for (Asm asm : code) {
+			kept.add(asm);
+			for (Rule rule : Rule.values()) {
+				if (rule.apply(this, kept, kept.size() - 1)) {
+					removed[rule.ordinal()]++;
+					break;
+				}
+			}
+		}
+		code.clear();
+		code.addAll(kept);
+	}
+
+	/**
+	 * @return the number of instructions each rule removed, for `-s`
+	 */
+	String summary() {
+		StringBuilder sb = new StringBuilder();
+		for (Rule rule : Rule.values()) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(removed[rule.ordinal()]).append(' ').append(
+					rule.description);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * If `code[i]` loads a word the nearest access to it before left in a
+	 * register, and that access is an `opc`, remove the load or replace it
+	 * by a move from that register.
+	 */
+	private boolean reuse(List<Asm> code, int i, String opc, int window) {
+		MipsAsm load = (MipsAsm) code.get(i);
+		if (!isAccess(load, "lw")) {
+			return false;
+		}
+		String base = load.getOperand(2);
+		String offset = load.getOperand(1);
+		int j;
+		for (j = i - 1; j >= 0 && j > i - window; j--) {
+			MipsAsm asm = (MipsAsm) code.get(j);
+			if ((isAccess(asm, "lw") || isAccess(asm, "sw"))
+					&& asm.getOperand(2).equals(base)
+					&& asm.getOperand(1).equals(offset)) {
+				break;
+			}
+			if (endsWindow(asm) || base.equals(dest(asm))
+					|| isAccess(asm, "sw") && mayAlias(asm, base)) {
+				return false;
+			}
+		}
+		if (j < 0 || j <= i - window) {
+			return false;
+		}
+		MipsAsm access = (MipsAsm) code.get(j);
+		String value = access.getOperand(0);
+		if (!access.getOpc().equals(opc) || value.equals(base)) {
+			return false;
+		}
+		for (int k = j + 1; k < i; k++) {
+			if (value.equals(dest((MipsAsm) code.get(k)))) {
+				return false;
+			}
+		}
+		if (value.equals(load.getOperand(0))) {
+			code.remove(i);
+		} else {
+			code.set(i, new MipsAsm(MipsAsm.FORMAT2, "move",
+					load.getOperand(0), value));
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether nothing known before `asm` holds after it
+	 */
+	private boolean endsWindow(MipsAsm asm) {
+		if (asm.isLabel()) {
+			Integer count = targets.get(asm.getLabel());
+			return count != null && count > 0;
+		}
+		String opc = asm.getOpc();
+		return opc.equals("b") || opc.equals("jr") || opc.equals("jal")
+				|| opc.equals("jalr");
+	}
+
+	/**
+	 * @return whether `store` may write a word loaded from some offset from
+	 *         `base`, other than the one `store` names if its base is `base`
+	 */
+	private static boolean mayAlias(MipsAsm store, String base) {
+		String storeBase = store.getOperand(2);
+		if (storeBase.equals(base)) {
+			return false;
+		}
+		// the frame is only reached through `$fp` and `$sp`, which no other
+		// register points into
+		return isStack(storeBase) == isStack(base);
+	}
+
+	private static boolean isStack(String reg) {
+		return reg.equals("$fp") || reg.equals("$sp");
+	}
+
+	private static boolean isAccess(MipsAsm asm, String opc) {
+		return opc.equals(asm.getOpc()) && asm.getFormat() == MipsAsm.FORMAT4;
+	}
+
+	private static boolean isBranch(MipsAsm asm) {
+		String opc = asm.getOpc();
+		return "b".equals(opc) || "beqz".equals(opc) || "bne".equals(opc);
+	}
+
+	private static String target(MipsAsm branch) {
+		return branch.getOperand(branch.getOperandCount() - 1);
+	}
+
+	/**
+	 * @return the register `asm` writes, null if none
+	 */
+	private static String dest(MipsAsm asm) {
+		String opc = asm.getOpc();
+		if (opc == null || asm.getOperandCount() == 0 || opc.equals("sw")
+				|| isBranch(asm) || opc.equals("jr") || opc.equals("jal")
+				|| opc.equals("jalr")) {
+			return null;
+		}
+		return asm.getOperand(0);
+	}
+}
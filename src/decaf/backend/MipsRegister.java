@@ -18,6 +18,11 @@ public class MipsRegister extends Register {
 		this.name = name;
 	}
 
+	@Override
+	public boolean isCalleeSaved() {
+		return id.compareTo(RegId.S0) >= 0 && id.compareTo(RegId.S7) <= 0;
+	}
+
 	@Override
 	public String toString() {
 		return name;
@@ -16,20 +16,11 @@ public final class OffsetCounter {
 
 	private static final int[] direction = new int[] { -1, 1, 1 };
 
-	public static final OffsetCounter LOCAL_OFFSET_COUNTER = new OffsetCounter(
-			Kind.LOCAL);
-
-	public static final OffsetCounter PARAMETER_OFFSET_COUNTER = new OffsetCounter(
-			Kind.PARAMETER);
-
-	public static final OffsetCounter VARFIELD_OFFSET_COUNTER = new OffsetCounter(
-			Kind.VARFIELD);
-
 	private Kind kind;
 
 	private int value;
 
-	private OffsetCounter(Kind kind) {
+	public OffsetCounter(Kind kind) {
 		this.kind = kind;
 		reset();
 	}
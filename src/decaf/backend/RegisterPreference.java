@@ -0,0 +1,39 @@
+package decaf.backend;
+
+import decaf.machdesc.Register;
+
+/**
+ * How the allocators choose among free registers, the callee-saved ones
+ * being saved on entry of the function and restored on return if it uses
+ * them, and the others around each call they hold a live value across.
+ *
+ * A value live across a call is best in a callee-saved register the
+ * function already uses, and any other value in a caller-saved register.
+ * Taking one more callee-saved register costs a store and a load each time
+ * the function is called, as much as saving a register around one call, so
+ * that is done only for a value live across more than one call, or across
+ * one in a loop.
+ */
+final class RegisterPreference {
+
+	private RegisterPreference() {
+	}
+
+	/**
+	 * @param used
+	 *            whether the function already uses `reg`
+	 * @param acrossCalls
+	 *            the calls the value is live across, each counting 10 to the
+	 *            loop depth of its block
+	 * @return how good `reg` is for the value, higher being better
+	 */
+	static int rank(Register reg, boolean used, double acrossCalls) {
+		if (!reg.isCalleeSaved()) {
+			return acrossCalls > 0 ? 1 : 2;
+		}
+		if (used) {
+			return acrossCalls > 0 ? 3 : 1;
+		}
+		return acrossCalls > 1 ? 2 : 0;
+	}
+}
@@ -34,25 +34,20 @@ public class BasicBlock {
 
     public boolean cancelled;
 
-    public boolean mark;
+    public TempSet def;
 
-    public Set<Temp> def;
+    public TempSet defInBlock;
 
-    public Set<Temp> defInBlock;
+    public TempSet liveUse;
 
-    public Set<Temp> liveUse;
+    public TempSet liveIn;
 
-    public Set<Pair> liveUseWithID;
+    public TempSet liveOut;
 
-    public Set<Temp> liveIn;
-
-    public Set<Pair> liveInWithID;
-
-    public Set<Temp> liveOut;
-
-    public Set<Pair> liveOutWithID;
-
-    public Set<Temp> saves;
+    /**
+     * Temps to store at the end of the block, and the registers they are in.
+     */
+    public Map<Temp, Register> saves;
 
     private List<Asm> asms;
 
@@ -64,386 +59,120 @@ public class BasicBlock {
      */
     private Map<Pair, Set<Integer>> DUChain;
 
+    private TempIndex temps;
+
+    private TacLiveness liveness;
+
     public BasicBlock() {
-        def = new TreeSet<Temp>(Temp.ID_COMPARATOR);
-        defInBlock = new TreeSet<Temp>(Temp.ID_COMPARATOR);
-        liveUse = new TreeSet<Temp>(Temp.ID_COMPARATOR);
-        liveUseWithID = new TreeSet<Pair>(Pair.COMPARATOR);
-        liveIn = new TreeSet<Temp>(Temp.ID_COMPARATOR);
-        liveInWithID = new TreeSet<Pair>(Pair.COMPARATOR);
-        liveOut = new TreeSet<Temp>(Temp.ID_COMPARATOR);
-        liveOutWithID = new TreeSet<Pair>(Pair.COMPARATOR);
         next = new int[2];
         asms = new ArrayList<Asm>();
+    }
 
+    /**
+     * Drop the results of the previous analysis and size the sets of the next
+     * one by the temp numbering `temps`.
+     */
+    void resetAnalysis(TempIndex temps) {
+        this.temps = temps;
+        def = new TempSet(temps);
+        defInBlock = new TempSet(temps);
+        liveUse = new TempSet(temps);
+        liveIn = new TempSet(temps);
+        liveOut = new TempSet(temps);
+        liveness = null;
         DUChain = new TreeMap<Pair, Set<Integer>>(Pair.COMPARATOR);
     }
 
-    public void allocateTacIds() {
+    public void allocateTacIds(IDAllocator ids) {
         for (Tac tac = tacList; tac != null; tac = tac.next) {
-            tac.id = IDAllocator.apply();
+            tac.id = ids.apply();
         }
-        endId = IDAllocator.apply();
+        endId = ids.apply();
     }
 
     public void computeDefAndLiveUse() {
         for (Tac tac = tacList; tac != null; tac = tac.next) {
-            switch (tac.opc) {
-                case ADD:
-                case SUB:
-                case MUL:
-                case DIV:
-                case MOD:
-                case LAND:
-                case LOR:
-                case GTR:
-                case GEQ:
-                case EQU:
-                case NEQ:
-                case LEQ:
-                case LES:
-                /* use op1 and op2, def op0 */
-                    if (tac.op1.lastVisitedBB != bbNum) {
-                        liveUse.add(tac.op1);
-                        tac.op1.lastVisitedBB = bbNum;
-                    }
-
-                    if(!defInBlock.contains(tac.op1)) {
-                        Pair p = new Pair(tac.id, tac.op1);
-                        liveUseWithID.add(p);
-                    }
-
-                    if (tac.op2.lastVisitedBB != bbNum) {
-                        liveUse.add(tac.op2);
-                        tac.op2.lastVisitedBB = bbNum;
-                    }
-
-                    if(!defInBlock.contains(tac.op2)) {
-                        Pair p = new Pair(tac.id, tac.op2);
-                        liveUseWithID.add(p);
-                    }
-
-                    if (tac.op0.lastVisitedBB != bbNum) {
-                        def.add(tac.op0);
-                        tac.op0.lastVisitedBB = bbNum;
-                    }
-
-                    if(!defInBlock.contains(tac.op0)) {
-                        defInBlock.add(tac.op0);
-                    }
-
-                    break;
-                case NEG:
-                case LNOT:
-                case ASSIGN:
-                case INDIRECT_CALL:
-                case LOAD:
-				/* use op1, def op0 */
-                    if (tac.op1.lastVisitedBB != bbNum) {
-                        liveUse.add(tac.op1);
-                        tac.op1.lastVisitedBB = bbNum;
-                    }
-
-                    if(!defInBlock.contains(tac.op1)) {
-                        Pair p = new Pair(tac.id, tac.op1);
-                        liveUseWithID.add(p);
-                    }
-
-                    if (tac.op0 != null && tac.op0.lastVisitedBB != bbNum) {  // in INDIRECT_CALL with return type VOID,
-                        // tac.op0 is null
-                        def.add(tac.op0);
-                        tac.op0.lastVisitedBB = bbNum;
-                    }
-
-                    if(tac.op0 != null && !defInBlock.contains(tac.op0)) {
-                        defInBlock.add(tac.op0);
-                    }
-
-                    break;
-                case LOAD_VTBL:
-                case DIRECT_CALL:
-                case RETURN:
-                case LOAD_STR_CONST:
-                case LOAD_IMM4:
-				/* def op0 */
-                    if (tac.op0 != null && tac.op0.lastVisitedBB != bbNum) {  // in DIRECT_CALL with return type VOID,
-                        // tac.op0 is null
-                        def.add(tac.op0);
-                        tac.op0.lastVisitedBB = bbNum;
-                    }
-
-                    if(tac.op0 != null && !defInBlock.contains(tac.op0)) {
-                        defInBlock.add(tac.op0);
-                    }
-                    break;
-                case STORE:
-				/* use op0 and op1*/
-                    if (tac.op0.lastVisitedBB != bbNum) {
-                        liveUse.add(tac.op0);
-                        tac.op0.lastVisitedBB = bbNum;
-                    }
-
-                    if(!defInBlock.contains(tac.op0)) {
-                        Pair p = new Pair(tac.id, tac.op0);
-                        liveUseWithID.add(p);
-                    }
-
-                    if (tac.op1.lastVisitedBB != bbNum) {
-                        liveUse.add(tac.op1);
-                        tac.op1.lastVisitedBB = bbNum;
-                    }
-
-                    if(!defInBlock.contains(tac.op1)) {
-                        Pair p = new Pair(tac.id, tac.op1);
-                        liveUseWithID.add(p);
-                    }
-                    break;
-                case PARM:
-				/* use op0 */
-                    if (tac.op0.lastVisitedBB != bbNum) {
-                        liveUse.add(tac.op0);
-                        tac.op0.lastVisitedBB = bbNum;
-                    }
-
-                    if(!defInBlock.contains(tac.op0)) {
-                        Pair p = new Pair(tac.id, tac.op0);
-                        liveUseWithID.add(p);
-                    }
-                    break;
-                default:
-				/* BRANCH MEMO MARK PARM*/
-                    break;
+            for (Temp use : tac.uses()) {
+                recordUse(use);
+            }
+            Temp def = tac.def();
+            if (def != null) {
+                recordDef(def);
             }
         }
-        if (var != null && var.lastVisitedBB != bbNum) {
-            liveUse.add(var);
-            var.lastVisitedBB = bbNum;
-        }
-
-        if(var != null && !defInBlock.contains(var)) {
-            Pair p = new Pair(endId, var);
-            liveUseWithID.add(p);
+        if (var != null) {
+            recordUse(var);
         }
 
-        liveIn.addAll(liveUse);
-
-        liveInWithID.addAll(liveUseWithID);
+        liveIn.union(liveUse);
     }
 
-    public void analyzeLiveness() {
-        if (tacList == null)
-            return;
-        Tac tac = tacList;
-        for (; tac.next != null; tac = tac.next) ;
-
-        tac.liveOut = new HashSet<Temp>(liveOut);
-        tac.liveOutWithID = new HashSet<Pair>(liveOutWithID);
-        if (var != null) {
-            tac.liveOut.add(var);
-            tac.liveOutWithID.add(new Pair(endId, var));
+    /**
+     * `t` is read: it is upward exposed unless it was defined before in this block.
+     */
+    private void recordUse(Temp t) {
+        if (!def.contains(t)) {
+            liveUse.add(t);
         }
-        for (; tac != tacList; tac = tac.prev) {
-            tac.prev.liveOut = new HashSet<Temp>(tac.liveOut);
-            tac.prev.liveOutWithID = new HashSet<Pair>(tac.liveOutWithID);
-
-            Pair pair = new Pair(tac.id, tac.op0);
-            Set<Integer> pos = new TreeSet<Integer>();
-            switch (tac.opc) {
-                case ADD:
-                case SUB:
-                case MUL:
-                case DIV:
-                case MOD:
-                case LAND:
-                case LOR:
-                case GTR:
-                case GEQ:
-                case EQU:
-                case NEQ:
-                case LEQ:
-                case LES:
-				/* use op1 and op2, def op0 */
-                    tac.prev.liveOut.remove(tac.op0);
-
-                    /*for(Pair p : tac.prev.liveOutWithID) {
-                        if(p.tmp == tac.op0) {
-                            tac.prev.liveOutWithID.remove(p);
-                        }
-                    }*/
-                    Iterator<Pair> iter = tac.prev.liveOutWithID.iterator();
-                    while(iter.hasNext()) {
-                        Pair tmp = iter.next();
-                        if(tmp.tmp == tac.op0) {
-                            iter.remove();
-                        }
-                    }
-                    for(Pair p : tac.liveOutWithID) {
-                        if(p.tmp == tac.op0) {
-                            pos.add(p.pos);
-                        }
-                    }
-                    DUChain.put(pair, pos);
-
-                    tac.prev.liveOut.add(tac.op1);
-
-                    Pair p1 = new Pair(tac.id, tac.op1);
-                    tac.prev.liveOutWithID.add(p1);
+    }
 
-                    tac.prev.liveOut.add(tac.op2);
+    /**
+     * `t` is written: it belongs to `def` unless it was read before in this block.
+     */
+    private void recordDef(Temp t) {
+        if (!liveUse.contains(t)) {
+            def.add(t);
+        }
+        defInBlock.add(t);
+    }
 
-                    Pair p2 = new Pair(tac.id, tac.op2);
-                    tac.prev.liveOutWithID.add(p2);
-                    break;
-                case NEG:
-                case LNOT:
-                case ASSIGN:
-                case INDIRECT_CALL:
-                case LOAD:
-				/* use op1, def op0 */
-
-                    if(tac.op0 != null) {
-                        tac.prev.liveOut.remove(tac.op0);
-                        /*for(Pair p : tac.prev.liveOutWithID) {
-                            if(p.tmp == tac.op0) {
-                                tac.prev.liveOutWithID.remove(p);
-                            }
-                        }*/
-                        Iterator<Pair> iter1 = tac.prev.liveOutWithID.iterator();
-                        while(iter1.hasNext()) {
-                            Pair tmp = iter1.next();
-                            if(tmp.tmp == tac.op0) {
-                                iter1.remove();
-                            }
-                        }
+    /**
+     * Prepare liveness queries at the TACs of this block; needs `liveOut`.
+     */
+    public void analyzeLiveness() {
+        liveness = new TacLiveness(this, temps);
+    }
 
-                        for(Pair p : tac.liveOutWithID) {
-                            if(p.tmp == tac.op0) {
-                                pos.add(p.pos);
-                            }
-                        }
-                        DUChain.put(pair, pos);
-                    }
-                    tac.prev.liveOut.add(tac.op1);
+    /**
+     * @return whether `t` is live just before `tac`, which must be an
+     *         original TAC of this block
+     */
+    public boolean isLiveBefore(Tac tac, Temp t) {
+        return liveness.isLiveBefore(tac, t);
+    }
 
-                    Pair p = new Pair(tac.id, tac.op1);
-                    tac.prev.liveOutWithID.add(p);
-                    break;
-                case LOAD_VTBL:
-                case DIRECT_CALL:
-                case RETURN:
-                case LOAD_STR_CONST:
-                case LOAD_IMM4:
-				/* def op0 */
-
-                    if(tac.op0 != null) {
-                        /*for(Pair p_ : tac.prev.liveOutWithID) {
-                            if(p_.tmp == tac.op0) {
-                                tac.prev.liveOutWithID.remove(p_);
-                            }
-                        }*/
-                        tac.prev.liveOut.remove(tac.op0);
-                        Iterator<Pair> iter2 = tac.prev.liveOutWithID.iterator();
-                        while(iter2.hasNext()) {
-                            Pair tmp = iter2.next();
-                            if(tmp.tmp == tac.op0) {
-                                iter2.remove();
-                            }
-                        }
+    /**
+     * @return whether `t` is live right after `tac`, which must be an
+     *         original TAC of this block
+     */
+    public boolean isLiveAfter(Tac tac, Temp t) {
+        return liveness.isLiveAfter(tac, t);
+    }
 
-                        for(Pair p__ : tac.liveOutWithID) {
-                            if(p__.tmp == tac.op0) {
-                                pos.add(p__.pos);
-                            }
-                        }
-                        DUChain.put(pair, pos);
-                    }
-                    break;
-                case STORE:
-				/* use op0 and op1*/
-                    tac.prev.liveOut.add(tac.op0);
-                    Pair p3 = new Pair(tac.id, tac.op0);
-                    tac.prev.liveOutWithID.add(p3);
-                    tac.prev.liveOut.add(tac.op1);
-                    Pair p4 = new Pair(tac.id, tac.op1);
-                    tac.prev.liveOutWithID.add(p4);
-                    break;
-                case BEQZ:
-                case BNEZ:
-                case PARM:
-				/* use op0 */
-                    tac.prev.liveOut.add(tac.op0);
-                    Pair p5 = new Pair(tac.id, tac.op0);
-                    tac.prev.liveOutWithID.add(p5);
-                    break;
-                default:
-				/* BRANCH MEMO MARK PARM*/
-                    break;
-            }
-        }
+    /**
+     * Record the DU chain of the definition of `tmp` at `pos`.
+     */
+    void setDUChain(int pos, Temp tmp, Set<Integer> uses) {
+        DUChain.put(new Pair(pos, tmp), uses);
+    }
 
-        Pair tacList_pair = new Pair(tac.id, tac.op0);
-        Set<Integer> pos = new TreeSet<Integer>();
-        switch (tac.opc) {
-            case ADD:
-            case SUB:
-            case MUL:
-            case DIV:
-            case MOD:
-            case LAND:
-            case LOR:
-            case GTR:
-            case GEQ:
-            case EQU:
-            case NEQ:
-            case LEQ:
-            case LES:
-                if(tac.op0 == null)
-                    return;
-                for(Pair p : tac.liveOutWithID) {
-                    if(p.tmp == tac.op0) {
-                        pos.add(p.pos);
-                    }
-                }
-                DUChain.put(tacList_pair, pos);
-                break;
-            case NEG:
-            case LNOT:
-            case ASSIGN:
-            case INDIRECT_CALL:
-            case LOAD:
-                if(tac.op0 == null)
-                    return;
-                for(Pair p : tac.liveOutWithID) {
-                    if(p.tmp  == tac.op0) {
-                        pos.add(p.pos);
-                    }
-                }
-                DUChain.put(tacList_pair, pos);
-                break;
-            case LOAD_VTBL:
-            case DIRECT_CALL:
-            case RETURN:
-            case LOAD_STR_CONST:
-            case LOAD_IMM4:
-                if(tac.op0 == null)
-                    return;
-                for(Pair p : tac.liveOutWithID) {
-                    if(p.tmp  == tac.op0) {
-                        pos.add(p.pos);
-                    }
-                }
-                DUChain.put(tacList_pair, pos);
-                break;
-            case STORE:
-                break;
-            case BEQZ:
-            case BNEZ:
-            case PARM:
-                break;
-            default:
-                break;
-        }
+    /**
+     * @return the DU chain of the temp `tac` defines, which must be a TAC of
+     *         this block: the ids of the TACs (and the `endId` of the blocks)
+     *         reading that definition
+     */
+    public Set<Integer> getDUChain(Tac tac) {
+        return DUChain.get(new Pair(tac.id, tac.def()));
+    }
 
+    /**
+     * Collect `def` and `liveUse` again after TACs were removed.
+     */
+    void recomputeDefAndLiveUse() {
+        def.clear();
+        defInBlock.clear();
+        liveUse.clear();
+        computeDefAndLiveUse();
     }
 
     public void printTo(PrintWriter pw) {
@@ -480,8 +209,31 @@ public class BasicBlock {
         pw.println("  liveIn  = " + toString(liveIn));
         pw.println("  liveOut = " + toString(liveOut));
 
-        for (Tac t = tacList; t != null; t = t.next) {
-            pw.println("    " + t + " " + toString(t.liveOut));
+        if (tacList != null) {
+            // rebuild the per-TAC sets one at a time, walking backwards; each
+            // is a HashSet copied from the one after it, so that they print
+            // in the same order as when every TAC kept its own set
+            List<String> lines = new ArrayList<String>();
+            Set<Temp> live = new HashSet<Temp>(liveOut);
+            if (var != null) {
+                live.add(var);
+            }
+            Tac t = tacList;
+            for (; t.next != null; t = t.next) ;
+            for (; t != null; t = t.prev) {
+                lines.add("    " + t + " " + toString(live));
+                live = new HashSet<Temp>(live);
+                Temp def = t.def();
+                if (def != null) {
+                    live.remove(def);
+                }
+                for (Temp use : t.uses()) {
+                    live.add(use);
+                }
+            }
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                pw.println(lines.get(i));
+            }
         }
 
         switch (endKind) {
@@ -624,6 +376,49 @@ public class BasicBlock {
         base.next = insert;
     }
 
+    /**
+     * Add `tac` after the last TAC of this block.
+     */
+    public void append(Tac tac) {
+        Tac tail = tacList;
+        for (; tail != null && tail.next != null; tail = tail.next) ;
+        tac.prev = tac.next = null;
+        insertAfter(tac, tail);
+    }
+
+    /**
+     * Add `tac` after the PHIs at the head of this block.
+     */
+    public void insertAfterPhis(Tac tac) {
+        tac.prev = tac.next = null;
+        if (tacList == null || tacList.opc != Tac.Kind.PHI) {
+            if (tacList == null) {
+                tacList = tac;
+            } else {
+                insertBefore(tac, tacList);
+            }
+            return;
+        }
+        Tac last = tacList;
+        for (; last.next != null && last.next.opc == Tac.Kind.PHI; last = last.next) ;
+        insertAfter(tac, last);
+    }
+
+    /**
+     * Unlink `tac` from this block.
+     */
+    public void remove(Tac tac) {
+        if (tac.prev == null) {
+            tacList = tac.next;
+        } else {
+            tac.prev.next = tac.next;
+        }
+        if (tac.next != null) {
+            tac.next.prev = tac.prev;
+        }
+        tac.prev = tac.next = null;
+    }
+
     public void appendAsm(Asm asm) {
         asms.add(asm);
     }
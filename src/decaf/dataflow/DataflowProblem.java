@@ -0,0 +1,67 @@
+package decaf.dataflow;
+
+import java.util.BitSet;
+
+import decaf.tac.Tac;
+
+/**
+ * A monotone dataflow problem over bit vectors, to be solved on a `FlowGraph`
+ * by `DataflowSolver`.
+ *
+ * A problem numbers its facts in [0, universe()) and describes each TAC by
+ * the facts it generates and kills, so that the value after a TAC (in the
+ * direction of the problem) is `gen | (before & ~kill)`. The solver composes
+ * these into one gen/kill pair per block. `transfer` receives the TAC itself
+ * and normally dispatches on `tac.opc`.
+ */
+public abstract class DataflowProblem {
+
+    public enum Direction {
+        FORWARD, BACKWARD
+    }
+
+    public enum Meet {
+        UNION, INTERSECTION
+    }
+
+    public abstract Direction direction();
+
+    public abstract Meet meet();
+
+    /**
+     * @return number of facts
+     */
+    public abstract int universe();
+
+    /**
+     * Record into `gen` and `kill` (both empty on entry) the effect of `tac`.
+     */
+    public abstract void transfer(Tac tac, BitSet gen, BitSet kill);
+
+    /**
+     * Record the effect of the end of `bb`, i.e. of the temp it tests or
+     * returns, which follows its last TAC. Nothing by default.
+     */
+    public void transferEnd(BasicBlock bb, BitSet gen, BitSet kill) {
+    }
+
+    /**
+     * @return value flowing into the entry block (forward) or out of the
+     *         returning blocks (backward); empty by default
+     */
+    public BitSet boundary() {
+        return new BitSet();
+    }
+
+    /**
+     * @return starting value of every other block: the top of the lattice,
+     *         i.e. empty for a union and everything for an intersection
+     */
+    public BitSet initial() {
+        BitSet top = new BitSet();
+        if (meet() == Meet.INTERSECTION) {
+            top.set(0, universe());
+        }
+        return top;
+    }
+}
@@ -0,0 +1,213 @@
+package decaf.dataflow;
+
+import java.util.BitSet;
+
+import decaf.tac.Tac;
+
+/**
+ * Worklist solver for any `DataflowProblem` on a `FlowGraph`.
+ *
+ * The TAC transfer functions of every block are first composed into one
+ * gen/kill pair. Blocks are then visited in reverse postorder of the graph
+ * (forward problems) or of the reversed graph (backward problems), so that a
+ * block is normally seen after the blocks it depends on; when the value a
+ * block passes on changes, only its successors (forward) or predecessors
+ * (backward) are queued again.
+ *
+ * `getIn` and `getOut` are always the values at the start and at the end of
+ * a block, whatever the direction of the problem.
+ */
+public class DataflowSolver {
+
+    private FlowGraph graph;
+
+    private DataflowProblem problem;
+
+    private boolean forward;
+
+    private BitSet[] gen;
+
+    private BitSet[] kill;
+
+    private BitSet[] in;
+
+    private BitSet[] out;
+
+    private int iterations;
+
+    public DataflowSolver(FlowGraph graph, DataflowProblem problem) {
+        this.graph = graph;
+        this.problem = problem;
+        this.forward = problem.direction() == DataflowProblem.Direction.FORWARD;
+        computeGenAndKill();
+        solve();
+    }
+
+    private void computeGenAndKill() {
+        int n = graph.size();
+        gen = new BitSet[n];
+        kill = new BitSet[n];
+        BitSet g = new BitSet();
+        BitSet k = new BitSet();
+        for (BasicBlock bb : graph) {
+            BitSet blockGen = new BitSet();
+            BitSet blockKill = new BitSet();
+            if (forward) {
+                for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                    g.clear();
+                    k.clear();
+                    problem.transfer(tac, g, k);
+                    compose(blockGen, blockKill, g, k);
+                }
+            }
+            g.clear();
+            k.clear();
+            problem.transferEnd(bb, g, k);
+            compose(blockGen, blockKill, g, k);
+            if (!forward) {
+                Tac tac = bb.tacList;
+                for (; tac != null && tac.next != null; tac = tac.next) ;
+                for (; tac != null; tac = tac.prev) {
+                    g.clear();
+                    k.clear();
+                    problem.transfer(tac, g, k);
+                    compose(blockGen, blockKill, g, k);
+                }
+            }
+            gen[bb.bbNum] = blockGen;
+            kill[bb.bbNum] = blockKill;
+        }
+    }
+
+    /**
+     * Append the transfer (g, k) after the transfer (blockGen, blockKill).
+     */
+    private static void compose(BitSet blockGen, BitSet blockKill, BitSet g, BitSet k) {
+        blockGen.andNot(k);
+        blockGen.or(g);
+        blockKill.or(k);
+    }
+
+    private void solve() {
+        int n = graph.size();
+        in = new BitSet[n];
+        out = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            in[i] = problem.initial();
+            out[i] = problem.initial();
+        }
+        BitSet boundary = problem.boundary();
+        boolean union = problem.meet() == DataflowProblem.Meet.UNION;
+
+        int[] order = forward ? graph.reversePostorder() : graph.reversePostorderOfReverseCFG();
+        int[] rank = new int[n];
+        for (int i = 0; i < n; i++) {
+            rank[order[i]] = i;
+        }
+        BitSet pending = new BitSet(n);
+        pending.set(0, n);
+        BitSet value = new BitSet();
+        iterations = 0;
+        int cursor = 0;
+        while (!pending.isEmpty()) {
+            cursor = pending.nextSetBit(cursor);
+            if (cursor < 0) {
+                cursor = pending.nextSetBit(0);
+            }
+            pending.clear(cursor);
+            int b = order[cursor];
+            BasicBlock bb = graph.getBlock(b);
+            iterations++;
+
+            BitSet before = forward ? in[b] : out[b];
+            BitSet after = forward ? out[b] : in[b];
+            boolean first = true;
+            if (forward ? b == 0 : bb.next[0] < 0) { // entry / RETURN
+                first = meetInto(before, boundary, first, union);
+            }
+            if (forward) {
+                for (int p : graph.getPredecessors(b)) {
+                    first = meetInto(before, out[p], first, union);
+                }
+            } else {
+                for (int i = 0; i < 2; i++) {
+                    if (bb.next[i] >= 0) { // Not RETURN
+                        first = meetInto(before, in[bb.next[i]], first, union);
+                    }
+                }
+            }
+
+            value.clear();
+            value.or(before);
+            value.andNot(kill[b]);
+            value.or(gen[b]);
+            if (!value.equals(after)) {
+                after.clear();
+                after.or(value);
+                if (forward) {
+                    for (int i = 0; i < 2; i++) {
+                        if (bb.next[i] >= 0) { // Not RETURN
+                            pending.set(rank[bb.next[i]]);
+                        }
+                    }
+                } else {
+                    for (int p : graph.getPredecessors(b)) {
+                        pending.set(rank[p]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Meet `v` into `acc`; the first value met replaces what `acc` held.
+     *
+     * @return false, i.e. the new value of `first`
+     */
+    private static boolean meetInto(BitSet acc, BitSet v, boolean first, boolean union) {
+        if (first) {
+            acc.clear();
+            acc.or(v);
+        } else if (union) {
+            acc.or(v);
+        } else {
+            acc.and(v);
+        }
+        return false;
+    }
+
+    /**
+     * @return value at the start of block `bbNum`
+     */
+    public BitSet getIn(int bbNum) {
+        return in[bbNum];
+    }
+
+    /**
+     * @return value at the end of block `bbNum`
+     */
+    public BitSet getOut(int bbNum) {
+        return out[bbNum];
+    }
+
+    /**
+     * @return facts generated by block `bbNum`, in the direction of the problem
+     */
+    public BitSet getGen(int bbNum) {
+        return gen[bbNum];
+    }
+
+    /**
+     * @return facts killed by block `bbNum`
+     */
+    public BitSet getKill(int bbNum) {
+        return kill[bbNum];
+    }
+
+    /**
+     * @return number of block visits the solver needed to converge
+     */
+    public int getIterations() {
+        return iterations;
+    }
+}
@@ -0,0 +1,333 @@
+package decaf.dataflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dominator (or post-dominator) tree of the blocks of a `FlowGraph`, with
+ * dominance frontiers.
+ *
+ * Immediate dominators are found with the iterative algorithm of Cooper,
+ * Harvey and Kennedy over a reverse postorder. Post-dominators are the
+ * dominators of the reversed graph, rooted at a virtual exit that follows
+ * every returning block. After construction the tree is numbered by a
+ * depth-first walk, so `dominates` is an O(1) interval test.
+ *
+ * Blocks that cannot be reached from the root (dead code for dominators,
+ * endless loops for post-dominators) are not in the tree: they have no
+ * immediate dominator and neither dominate nor are dominated by any block.
+ */
+public class DominatorTree {
+
+    private static final int UNDEFINED = -1;
+
+    private boolean post;
+
+    /**
+     * Number of blocks; node `n` is a virtual root, leading into the entry
+     * block (dominators) or out of every returning block (post-dominators).
+     */
+    private int n;
+
+    private int root;
+
+    /**
+     * Edges of the graph the tree is built over (reversed for post-dominators).
+     */
+    private int[][] succs;
+
+    private int[][] preds;
+
+    private int[] idom;
+
+    private int[] rpoNumber;
+
+    private int[] order;
+
+    private List<List<Integer>> children;
+
+    /**
+     * DFS interval of every node in the tree: `pre[a] <= pre[b] && post[b] <=
+     * post[a]` iff `a` dominates `b`.
+     */
+    private int[] preNum;
+
+    private int[] postNum;
+
+    private int[] depth;
+
+    private int[] preorder;
+
+    private List<List<Integer>> frontiers;
+
+    public DominatorTree(FlowGraph graph, boolean post) {
+        this.post = post;
+        this.n = graph.size();
+        buildEdges(graph);
+        computeOrder();
+        computeIdom();
+        numberTree();
+        computeFrontiers();
+    }
+
+    private void buildEdges(FlowGraph graph) {
+        List<List<Integer>> s = new ArrayList<List<Integer>>();
+        List<List<Integer>> p = new ArrayList<List<Integer>>();
+        for (int i = 0; i <= n; i++) {
+            s.add(new ArrayList<Integer>(2));
+            p.add(new ArrayList<Integer>(2));
+        }
+        for (BasicBlock bb : graph) {
+            if (bb.next[0] < 0) { // RETURN
+                if (post) {
+                    s.get(n).add(bb.bbNum);
+                    p.get(bb.bbNum).add(n);
+                }
+                continue;
+            }
+            for (int i = 0; i < 2; i++) {
+                if (i == 1 && bb.next[1] == bb.next[0]) {
+                    break;
+                }
+                int from = post ? bb.next[i] : bb.bbNum;
+                int to = post ? bb.bbNum : bb.next[i];
+                s.get(from).add(to);
+                p.get(to).add(from);
+            }
+        }
+        if (!post && n > 0) {
+            // the virtual root just leads into the entry block
+            s.get(n).add(0);
+            p.get(0).add(n);
+        }
+        succs = toArrays(s);
+        preds = toArrays(p);
+        root = n;
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] arrays = new int[lists.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            List<Integer> l = lists.get(i);
+            arrays[i] = new int[l.size()];
+            for (int j = 0; j < arrays[i].length; j++) {
+                arrays[i][j] = l.get(j);
+            }
+        }
+        return arrays;
+    }
+
+    /**
+     * Reverse postorder of the nodes reachable from the root, by an iterative
+     * depth-first search.
+     */
+    private void computeOrder() {
+        int[] postorder = new int[n + 1];
+        int count = 0;
+        boolean[] visited = new boolean[n + 1];
+        int[] stack = new int[n + 1];
+        int[] edge = new int[n + 1];
+        int sp = 0;
+        stack[sp] = root;
+        visited[root] = true;
+        while (sp >= 0) {
+            int v = stack[sp];
+            if (edge[sp] < succs[v].length) {
+                int w = succs[v][edge[sp]++];
+                if (!visited[w]) {
+                    visited[w] = true;
+                    stack[++sp] = w;
+                    edge[sp] = 0;
+                }
+            } else {
+                postorder[count++] = stack[sp--];
+            }
+        }
+        order = new int[count];
+        rpoNumber = new int[n + 1];
+        Arrays.fill(rpoNumber, UNDEFINED);
+        for (int i = 0; i < count; i++) {
+            order[i] = postorder[count - 1 - i];
+            rpoNumber[order[i]] = i;
+        }
+    }
+
+    private void computeIdom() {
+        idom = new int[n + 1];
+        Arrays.fill(idom, UNDEFINED);
+        idom[root] = root;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.length; i++) {
+                int b = order[i];
+                int newIdom = UNDEFINED;
+                for (int p : preds[b]) {
+                    if (idom[p] == UNDEFINED) {
+                        continue;
+                    }
+                    newIdom = newIdom == UNDEFINED ? p : intersect(p, newIdom);
+                }
+                if (idom[b] != newIdom) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (rpoNumber[a] > rpoNumber[b]) {
+                a = idom[a];
+            }
+            while (rpoNumber[b] > rpoNumber[a]) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    private void numberTree() {
+        children = new ArrayList<List<Integer>>();
+        for (int i = 0; i <= n; i++) {
+            children.add(new ArrayList<Integer>());
+        }
+        for (int b : order) {
+            if (b != root) {
+                children.get(idom[b]).add(b);
+            }
+        }
+        preNum = new int[n + 1];
+        postNum = new int[n + 1];
+        depth = new int[n + 1];
+        Arrays.fill(preNum, UNDEFINED);
+        Arrays.fill(postNum, UNDEFINED);
+        int[] stack = new int[n + 1];
+        int[] edge = new int[n + 1];
+        preorder = new int[order.length - 1];
+        int visited = 0;
+        int sp = 0;
+        int clock = 0;
+        stack[sp] = root;
+        preNum[root] = clock++;
+        while (sp >= 0) {
+            int v = stack[sp];
+            List<Integer> cs = children.get(v);
+            if (edge[sp] < cs.size()) {
+                int w = cs.get(edge[sp]++);
+                depth[w] = depth[v] + 1;
+                preNum[w] = clock++;
+                preorder[visited++] = w;
+                stack[++sp] = w;
+                edge[sp] = 0;
+            } else {
+                postNum[v] = clock++;
+                sp--;
+            }
+        }
+    }
+
+    /**
+     * Dominance frontiers, by walking up from the predecessors of every join
+     * node to its immediate dominator.
+     */
+    private void computeFrontiers() {
+        frontiers = new ArrayList<List<Integer>>();
+        for (int i = 0; i <= n; i++) {
+            frontiers.add(new ArrayList<Integer>(0));
+        }
+        for (int b : order) {
+            if (preds[b].length < 2) {
+                continue;
+            }
+            for (int p : preds[b]) {
+                for (int runner = p; idom[runner] != UNDEFINED && runner != idom[b]; runner = idom[runner]) {
+                    List<Integer> df = frontiers.get(runner);
+                    if (df.isEmpty() || df.get(df.size() - 1) != b) {
+                        df.add(b);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether this is the post-dominator tree
+     */
+    public boolean isPostDominators() {
+        return post;
+    }
+
+    /**
+     * @return whether block `b` is in the tree, i.e. reachable from the entry
+     *         (dominators) or able to reach a return (post-dominators)
+     */
+    public boolean contains(int b) {
+        return preNum[b] != UNDEFINED;
+    }
+
+    /**
+     * @return the immediate (post-)dominator of block `b`, or -1 if `b` is
+     *         the entry, is not in the tree, or is post-dominated only by the
+     *         exit
+     */
+    public int getIdom(int b) {
+        int d = idom[b];
+        return d == UNDEFINED || d == root ? -1 : d;
+    }
+
+    /**
+     * @return blocks immediately (post-)dominated by `b`
+     */
+    public List<Integer> getChildren(int b) {
+        return children.get(b);
+    }
+
+    /**
+     * @return blocks that are roots of the tree: the entry block for
+     *         dominators, the returning blocks for post-dominators
+     */
+    public List<Integer> getRoots() {
+        return children.get(root);
+    }
+
+    /**
+     * @return depth of `b` in the tree; the roots have depth 1
+     */
+    public int getDepth(int b) {
+        return depth[b];
+    }
+
+    /**
+     * @return whether block `a` (post-)dominates block `b`; every block in
+     *         the tree dominates itself
+     */
+    public boolean dominates(int a, int b) {
+        if (preNum[a] == UNDEFINED || preNum[b] == UNDEFINED) {
+            return false;
+        }
+        return preNum[a] <= preNum[b] && postNum[b] <= postNum[a];
+    }
+
+    public boolean strictlyDominates(int a, int b) {
+        return a != b && dominates(a, b);
+    }
+
+    /**
+     * @return the (post-)dominance frontier of block `b`, in reverse
+     *         postorder of the first time each block was added
+     */
+    public List<Integer> getFrontier(int b) {
+        return frontiers.get(b);
+    }
+
+    /**
+     * @return the blocks of the tree in a preorder (each block before the
+     *         blocks it dominates)
+     */
+    public int[] preorder() {
+        return preorder;
+    }
+}
@@ -1,36 +1,95 @@
 package decaf.dataflow;
 
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import decaf.CompilationContext;
+import decaf.machdesc.Intrinsic;
 import decaf.tac.Functy;
 import decaf.tac.Tac;
 import decaf.tac.Tac.Kind;
+import decaf.tac.Temp;
 
 public class FlowGraph implements Iterable<BasicBlock> {
 
     private Functy functy;
 
+    private CompilationContext context;
+
     private List<BasicBlock> bbs;
 
-    public FlowGraph(Functy func) {
+    private TempIndex temps;
+
+    private List<List<Integer>> preds;
+
+    private int livenessIterations;
+
+    private ReachingDefinitions reachingDefinitions;
+
+    private DominatorTree dominators;
+
+    private DominatorTree postDominators;
+
+    private LoopForest loops;
+
+    /**
+     * Numbers the TACs. The constructor numbers them with the allocator of
+     * the whole compilation, as `-l 3` prints them; later analyses with one
+     * of the function's own, so that functions can be optimized at the same
+     * time and still get the same numbers.
+     */
+    private IDAllocator tacIds;
+
+    /**
+     * Number of the next temp created for this function. Temps are created
+     * after those of the translation, and need only be unique within the
+     * function.
+     */
+    private int tempCount;
+
+    public FlowGraph(Functy func, CompilationContext context) {
         this.functy = func;
+        this.context = context;
+        tacIds = context.getTacIds();
+        tempCount = context.getTempCount();
         deleteMemo(func);
         bbs = new ArrayList<BasicBlock>();
         markBasicBlocks(func.head);
         gatherBasicBlocks(func.head);
         simplify();
+        computePredecessors();
+        analyze();
+        tacIds = new IDAllocator();
+    }
+
+    /**
+     * Number the temps and TACs, and compute liveness and DU chains.
+     *
+     * Called once by the constructor, and again by whoever rewrites the
+     * blocks; the graph must not contain PHIs at that point. Predecessors
+     * are kept up to date by the editing methods below, not recomputed here.
+     */
+    public void analyze() {
+        temps = TempIndex.of(this);
         for (BasicBlock bb : bbs) {
-            bb.allocateTacIds();
+            bb.allocateTacIds(tacIds);
+            bb.resetAnalysis(temps);
         }
         analyzeLiveness();
         for (BasicBlock bb : bbs) {
             bb.analyzeLiveness();
         }
+        reachingDefinitions = new ReachingDefinitions(this);
+        reachingDefinitions.buildDUChains();
     }
 
     private void deleteMemo(Functy func) {
@@ -110,6 +169,7 @@ public class FlowGraph implements Iterable<BasicBlock> {
                 current.bbNum = bbNum;
                 current.tacList = null;
                 current.endKind = BasicBlock.EndKind.BY_RETURN;
+                current.next[0] = current.next[1] = -1;
                 nextStart = null;
             } else {
                 start.prev = null;
@@ -145,6 +205,7 @@ public class FlowGraph implements Iterable<BasicBlock> {
                     default:
                         if (nextStart == null) {
                             current.endKind = BasicBlock.EndKind.BY_RETURN;
+                            current.next[0] = current.next[1] = -1;
                         } else {
                             current.endKind = BasicBlock.EndKind.BY_BRANCH;
                             current.next[0] = current.next[1] = nextStart.bbNum;
@@ -173,45 +234,451 @@ public class FlowGraph implements Iterable<BasicBlock> {
         return bbs.size();
     }
 
+    /**
+     * Solve block-level liveness as a `LiveVariables` problem.
+     *
+     * `Def` and `liveUse` are still collected per block for printing; the
+     * solution is copied into `liveIn` and `liveOut`.
+     */
     public void analyzeLiveness() {
         for (BasicBlock bb : bbs) {
             bb.computeDefAndLiveUse();
         }
-        boolean changed = true;
-        do {
-            changed = false;
+        DataflowSolver liveness = new DataflowSolver(this, new LiveVariables(temps));
+        for (BasicBlock bb : bbs) {
+            bb.liveIn.assign(liveness.getIn(bb.bbNum));
+            bb.liveOut.assign(liveness.getOut(bb.bbNum));
+        }
+        livenessIterations = liveness.getIterations();
+    }
+
+    /**
+     * Bring liveness up to date after TACs were removed from the blocks
+     * `blocks`, without solving it again for every temp: only the temps in
+     * `changed`, those the removed TACs read or wrote, can be live in fewer
+     * places. Each of them is traced back from the blocks that still read
+     * it, as a single-temp liveness problem.
+     */
+    public void updateLiveness(BitSet blocks, Collection<Temp> changed) {
+        BitSet stale = (BitSet) blocks.clone();
+        for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1)) {
+            bbs.get(b).recomputeDefAndLiveUse();
+        }
+        Deque<Integer> work = new ArrayDeque<Integer>();
+        for (Temp t : changed) {
             for (BasicBlock bb : bbs) {
-                for (int i = 0; i < 2; i++) {
-                    if (bb.next[i] >= 0) { // Not RETURN
-                        bb.liveOut.addAll(bbs.get(bb.next[i]).liveIn);
-                        bb.liveOutWithID.addAll(bbs.get(bb.next[i]).liveInWithID);
+                if (bb.liveOut.remove(t)) {
+                    stale.set(bb.bbNum);
+                }
+                bb.liveIn.remove(t);
+                if (bb.liveUse.contains(t)) {
+                    bb.liveIn.add(t);
+                    work.add(bb.bbNum);
+                }
+            }
+            while (!work.isEmpty()) {
+                for (int p : preds.get(work.pop())) {
+                    BasicBlock pred = bbs.get(p);
+                    if (pred.liveOut.add(t)) {
+                        stale.set(p);
+                        if (!pred.def.contains(t) && pred.liveIn.add(t)) {
+                            work.push(p);
+                        }
                     }
                 }
-                bb.liveOut.removeAll(bb.def);
+            }
+        }
+        for (int b = stale.nextSetBit(0); b >= 0; b = stale.nextSetBit(b + 1)) {
+            bbs.get(b).analyzeLiveness();
+        }
+    }
+
+    /**
+     * @return number of block visits the last liveness analysis needed to converge
+     */
+    public int getLivenessIterations() {
+        return livenessIterations;
+    }
+
+    private void computePredecessors() {
+        preds = new ArrayList<List<Integer>>();
+        for (int i = 0; i < bbs.size(); i++) {
+            preds.add(new ArrayList<Integer>());
+        }
+        for (BasicBlock bb : bbs) {
+            if (bb.next[0] >= 0) { // Not RETURN
+                preds.get(bb.next[0]).add(bb.bbNum);
+                if (bb.next[1] != bb.next[0]) {
+                    preds.get(bb.next[1]).add(bb.bbNum);
+                }
+            }
+        }
+    }
+
+    public List<Integer> getPredecessors(int bbNum) {
+        return preds.get(bbNum);
+    }
+
+    /**
+     * @return the distinct successors of block `bbNum`
+     */
+    public int[] getSuccessors(int bbNum) {
+        BasicBlock bb = bbs.get(bbNum);
+        if (bb.next[0] < 0) { // RETURN
+            return new int[0];
+        }
+        if (bb.next[0] == bb.next[1]) {
+            return new int[] { bb.next[0] };
+        }
+        return new int[] { bb.next[0], bb.next[1] };
+    }
+
+    /*
+     * Editing the graph. These keep the predecessor lists and the operands of
+     * PHIs in step, and drop the (post-)dominator trees.
+     */
+
+    private void changed() {
+        dominators = null;
+        postDominators = null;
+        loops = null;
+    }
+
+    /**
+     * Put an empty block on the edge `from` -> `to`.
+     *
+     * @return the new block, numbered after every existing block
+     */
+    public BasicBlock splitEdge(int from, int to) {
+        BasicBlock bb = new BasicBlock();
+        bb.bbNum = bbs.size();
+        bb.endKind = BasicBlock.EndKind.BY_BRANCH;
+        bb.next[0] = bb.next[1] = to;
+        bbs.add(bb);
+
+        BasicBlock src = bbs.get(from);
+        for (int i = 0; i < 2; i++) {
+            if (src.next[i] == to) {
+                src.next[i] = bb.bbNum;
+            }
+        }
+        List<Integer> ps = preds.get(to);
+        ps.set(ps.indexOf(from), bb.bbNum);
+        List<Integer> own = new ArrayList<Integer>();
+        own.add(from);
+        preds.add(own);
+        changed();
+        return bb;
+    }
+
+    /**
+     * Route the edges from the blocks `from` into `header` through a new
+     * block. The arguments the PHIs of `header` take from those blocks are
+     * merged by PHIs of the new block where they differ.
+     *
+     * @return the new block, numbered after every existing block
+     */
+    public BasicBlock insertPreheader(int header, List<Integer> from) {
+        BasicBlock pre = new BasicBlock();
+        pre.bbNum = bbs.size();
+        pre.endKind = BasicBlock.EndKind.BY_BRANCH;
+        pre.next[0] = pre.next[1] = header;
+        bbs.add(pre);
+
+        List<Integer> ps = preds.get(header);
+        List<Integer> kept = new ArrayList<Integer>();
+        List<Integer> moved = new ArrayList<Integer>();
+        for (int p : ps) {
+            (from.contains(p) ? moved : kept).add(p);
+        }
+        for (Tac phi = bbs.get(header).tacList; phi != null && phi.opc == Tac.Kind.PHI; phi = phi.next) {
+            List<Temp> keptArgs = new ArrayList<Temp>();
+            List<Temp> movedArgs = new ArrayList<Temp>();
+            for (int j = 0; j < ps.size(); j++) {
+                (from.contains(ps.get(j)) ? movedArgs : keptArgs).add(phi.args[j]);
+            }
+            Temp merged = movedArgs.get(0);
+            for (Temp arg : movedArgs) {
+                if (arg != merged) {
+                    merged = createTempI4();
+                    merged.sym = phi.op0.sym;
+                    Tac mergePhi = Tac.genPhi(merged, movedArgs.size());
+                    mergePhi.args = movedArgs.toArray(mergePhi.args);
+                    pre.append(mergePhi);
+                    break;
+                }
+            }
+            keptArgs.add(merged);
+            phi.args = keptArgs.toArray(new Temp[keptArgs.size()]);
+        }
+        for (int p : moved) {
+            BasicBlock src = bbs.get(p);
+            for (int i = 0; i < 2; i++) {
+                if (src.next[i] == header) {
+                    src.next[i] = pre.bbNum;
+                }
+            }
+        }
+        kept.add(pre.bbNum);
+        preds.set(header, kept);
+        preds.add(moved);
+        changed();
+        return pre;
+    }
+
+    /**
+     * Make block `bbNum` branch unconditionally to its successor `keep`,
+     * dropping its other outgoing edge.
+     */
+    public void removeBranch(int bbNum, int keep) {
+        BasicBlock bb = bbs.get(bbNum);
+        for (int i = 0; i < 2; i++) {
+            if (bb.next[i] != keep) {
+                removePredecessor(bb.next[i], bbNum);
+            }
+        }
+        bb.endKind = BasicBlock.EndKind.BY_BRANCH;
+        bb.var = null;
+        bb.next[0] = bb.next[1] = keep;
+        changed();
+    }
 
-                Iterator<Pair> iter = bb.liveOutWithID.iterator();
-                while(iter.hasNext()) {
-                    Pair p = iter.next();
-                    if(bb.defInBlock.contains(p.tmp)) {
-                        iter.remove();
+    /**
+     * End every block that calls `_Halt` at the call, dropping the TACs after
+     * it and the edges out of the block, which are never taken. The code
+     * after a runtime check is then reached only from the check.
+     *
+     * @return whether any edge was removed
+     */
+    public boolean removeEdgesAfterHalt() {
+        boolean changed = false;
+        for (BasicBlock bb : bbs) {
+            Tac halt = bb.tacList;
+            while (halt != null && !(halt.opc == Tac.Kind.DIRECT_CALL && halt.label == Intrinsic.HALT.label)) {
+                halt = halt.next;
+            }
+            if (halt == null || bb.next[0] < 0) {
+                continue;
+            }
+            halt.next = null;
+            for (int succ : getSuccessors(bb.bbNum)) {
+                removePredecessor(succ, bb.bbNum);
+            }
+            bb.endKind = BasicBlock.EndKind.BY_RETURN;
+            bb.var = null;
+            bb.next[0] = bb.next[1] = -1;
+            changed = true;
+        }
+        if (changed) {
+            changed();
+        }
+        return changed;
+    }
+
+    private void removePredecessor(int bbNum, int pred) {
+        List<Integer> ps = preds.get(bbNum);
+        int j = ps.indexOf(pred);
+        if (j < 0) {
+            return;
+        }
+        ps.remove(j);
+        for (Tac tac = bbs.get(bbNum).tacList; tac != null && tac.opc == Tac.Kind.PHI; tac = tac.next) {
+            Temp[] args = new Temp[tac.args.length - 1];
+            System.arraycopy(tac.args, 0, args, 0, j);
+            System.arraycopy(tac.args, j + 1, args, j, args.length - j);
+            tac.args = args;
+        }
+    }
+
+    /**
+     * Give the function an entry block that no edge enters, if block 0 is a
+     * loop header. The new block becomes block 0. Must be called before any
+     * PHI is placed.
+     *
+     * @return whether a block was added
+     */
+    public boolean ensureEntryWithoutPredecessors() {
+        if (preds.get(0).isEmpty()) {
+            return false;
+        }
+        BasicBlock entry = new BasicBlock();
+        entry.endKind = BasicBlock.EndKind.BY_BRANCH;
+        entry.next[0] = entry.next[1] = 0;
+        List<BasicBlock> order = new ArrayList<BasicBlock>();
+        order.add(entry);
+        order.addAll(bbs);
+        bbs.add(entry);
+        entry.bbNum = bbs.size() - 1;
+        preds.add(new ArrayList<Integer>());
+        preds.get(0).add(entry.bbNum);
+        renumber(order);
+        return true;
+    }
+
+    /**
+     * Delete the blocks that cannot be reached from block 0.
+     *
+     * @return whether any block was deleted
+     */
+    public boolean removeUnreachableBlocks() {
+        boolean[] reached = new boolean[bbs.size()];
+        int[] stack = new int[bbs.size()];
+        int sp = 0;
+        stack[sp++] = 0;
+        reached[0] = true;
+        while (sp > 0) {
+            for (int succ : getSuccessors(stack[--sp])) {
+                if (!reached[succ]) {
+                    reached[succ] = true;
+                    stack[sp++] = succ;
+                }
+            }
+        }
+        List<BasicBlock> order = new ArrayList<BasicBlock>();
+        for (BasicBlock bb : bbs) {
+            if (reached[bb.bbNum]) {
+                order.add(bb);
+                for (int p : new ArrayList<Integer>(preds.get(bb.bbNum))) {
+                    if (!reached[p]) {
+                        removePredecessor(bb.bbNum, p);
                     }
                 }
+            }
+        }
+        if (order.size() == bbs.size()) {
+            return false;
+        }
+        renumber(order);
+        return true;
+    }
 
-                if (bb.liveIn.addAll(bb.liveOut))
-                    changed = true;
+    /**
+     * Renumber the blocks in reverse postorder, so that (outside of loops) a
+     * block comes after the blocks whose definitions reach it. The register
+     * allocator gives stack slots to temps in block order.
+     */
+    public void sortBlocks() {
+        List<BasicBlock> order = new ArrayList<BasicBlock>();
+        for (int b : reversePostorder()) {
+            order.add(bbs.get(b));
+        }
+        renumber(order);
+    }
 
-                if(bb.liveInWithID.addAll(bb.liveOutWithID)) {
-                    changed = true;
+    /**
+     * Keep exactly the blocks of `order`, numbered by their position in it.
+     */
+    private void renumber(List<BasicBlock> order) {
+        int[] newNum = new int[bbs.size()];
+        Arrays.fill(newNum, -1);
+        for (int i = 0; i < order.size(); i++) {
+            newNum[order.get(i).bbNum] = i;
+        }
+        List<List<Integer>> newPreds = new ArrayList<List<Integer>>();
+        for (BasicBlock bb : order) {
+            List<Integer> ps = new ArrayList<Integer>();
+            for (int p : preds.get(bb.bbNum)) {
+                ps.add(newNum[p]);
+            }
+            newPreds.add(ps);
+        }
+        for (int i = 0; i < order.size(); i++) {
+            BasicBlock bb = order.get(i);
+            bb.bbNum = i;
+            if (bb.next[0] >= 0) { // Not RETURN
+                bb.next[0] = newNum[bb.next[0]];
+                bb.next[1] = newNum[bb.next[1]];
+            }
+        }
+        bbs = new ArrayList<BasicBlock>(order);
+        preds = newPreds;
+        changed();
+    }
+
+    /**
+     * Reverse postorder of an iterative depth-first search from the entry
+     * block; blocks that are not reachable from the entry follow in index
+     * order.
+     */
+    public int[] reversePostorder() {
+        int n = bbs.size();
+        int[] post = new int[n];
+        int count = 0;
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] edge = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (visited[root]) {
+                continue;
+            }
+            int sp = 0;
+            stack[sp] = root;
+            edge[sp] = 0;
+            visited[root] = true;
+            while (sp >= 0) {
+                BasicBlock bb = bbs.get(stack[sp]);
+                if (edge[sp] < 2) {
+                    int succ = bb.next[edge[sp]++];
+                    if (succ >= 0 && !visited[succ]) {
+                        visited[succ] = true;
+                        stack[++sp] = succ;
+                        edge[sp] = 0;
+                    }
+                } else {
+                    post[count++] = stack[sp--];
                 }
+            }
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = post[n - 1 - i];
+        }
+        return order;
+    }
 
-                for (int i = 0; i < 2; i++) {
-                    if (bb.next[i] >= 0) { // Not RETURN
-                        bb.liveOut.addAll(bbs.get(bb.next[i]).liveIn);
-                        bb.liveOutWithID.addAll(bbs.get(bb.next[i]).liveInWithID);
+    /**
+     * Depth-first search over the reversed edges, starting from the exit
+     * blocks; blocks that cannot reach an exit (endless loops) are searched
+     * afterwards. The search is iterative so that huge functions do not
+     * overflow the Java stack.
+     */
+    public int[] reversePostorderOfReverseCFG() {
+        int n = bbs.size();
+        int[] post = new int[n];
+        int count = 0;
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] edge = new int[n];
+        for (int pass = 0; pass < 2; pass++) {
+            for (BasicBlock root : bbs) {
+                if (visited[root.bbNum]
+                        || (pass == 0 && root.endKind != BasicBlock.EndKind.BY_RETURN)) {
+                    continue;
+                }
+                int sp = 0;
+                stack[sp] = root.bbNum;
+                edge[sp] = 0;
+                visited[root.bbNum] = true;
+                while (sp >= 0) {
+                    List<Integer> ps = preds.get(stack[sp]);
+                    if (edge[sp] < ps.size()) {
+                        int p = ps.get(edge[sp]++);
+                        if (!visited[p]) {
+                            visited[p] = true;
+                            stack[++sp] = p;
+                            edge[sp] = 0;
+                        }
+                    } else {
+                        post[count++] = stack[sp--];
                     }
                 }
             }
-        } while (changed);
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = post[n - 1 - i];
+        }
+        return order;
     }
 
     public void simplify() {
@@ -271,7 +738,7 @@ public class FlowGraph implements Iterable<BasicBlock> {
             }
             i++;
         }
-        bbs = bbs.subList(0, sz);
+        bbs = new ArrayList<BasicBlock>(bbs.subList(0, sz));
         for (BasicBlock bb : bbs) {
             bb.bbNum = newBBNum.get(bb.bbNum);
             if (bb.endKind != BasicBlock.EndKind.BY_RETURN) {
@@ -302,7 +769,59 @@ public class FlowGraph implements Iterable<BasicBlock> {
         }
     }
 
+    public ReachingDefinitions getReachingDefinitions() {
+        return reachingDefinitions;
+    }
+
+    /**
+     * @return dominator tree of the blocks, built on first use
+     */
+    public DominatorTree getDominators() {
+        if (dominators == null) {
+            dominators = new DominatorTree(this, false);
+        }
+        return dominators;
+    }
+
+    /**
+     * @return post-dominator tree of the blocks, built on first use
+     */
+    public DominatorTree getPostDominators() {
+        if (postDominators == null) {
+            postDominators = new DominatorTree(this, true);
+        }
+        return postDominators;
+    }
+
+    /**
+     * @return natural loops of the blocks, found on first use
+     */
+    public LoopForest getLoops() {
+        if (loops == null) {
+            loops = new LoopForest(this);
+        }
+        return loops;
+    }
+
+    public TempIndex getTemps() {
+        return temps;
+    }
+
     public Functy getFuncty() {
         return functy;
     }
+
+    /**
+     * @return the compilation this function belongs to
+     */
+    public CompilationContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return a new temp of this function
+     */
+    public Temp createTempI4() {
+        return Temp.createTempI4(tempCount++);
+    }
 }
@@ -4,9 +4,9 @@ package decaf.dataflow;
  * Allocate unique Ids for TAC.
  */
 public class IDAllocator {
-    private static int cnt = 0;
+    private int cnt = 0;
 
-    public static int apply() {
+    public int apply() {
         ++cnt;
         return cnt;
     }
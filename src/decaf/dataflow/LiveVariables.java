@@ -0,0 +1,55 @@
+package decaf.dataflow;
+
+import java.util.BitSet;
+
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Live variables: a backward union problem whose facts are the temps of the
+ * function, numbered by `TempIndex`.
+ *
+ * A TAC kills the temp it writes and generates the temps it reads; the end
+ * of a block reads the temp it tests or returns.
+ */
+public class LiveVariables extends DataflowProblem {
+
+    private TempIndex temps;
+
+    public LiveVariables(TempIndex temps) {
+        this.temps = temps;
+    }
+
+    @Override
+    public Direction direction() {
+        return Direction.BACKWARD;
+    }
+
+    @Override
+    public Meet meet() {
+        return Meet.UNION;
+    }
+
+    @Override
+    public int universe() {
+        return temps.size();
+    }
+
+    @Override
+    public void transfer(Tac tac, BitSet gen, BitSet kill) {
+        Temp def = tac.def();
+        if (def != null) {
+            kill.set(def.index);
+        }
+        for (Temp use : tac.uses()) {
+            gen.set(use.index);
+        }
+    }
+
+    @Override
+    public void transferEnd(BasicBlock bb, BitSet gen, BitSet kill) {
+        if (bb.var != null) {
+            gen.set(bb.var.index);
+        }
+    }
+}
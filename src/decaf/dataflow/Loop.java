@@ -0,0 +1,106 @@
+package decaf.dataflow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A natural loop: a header block and every block that can reach one of the
+ * back edges into it without passing through the header. Loops sharing a
+ * header are one loop.
+ */
+public class Loop {
+
+    private int header;
+
+    private BitSet blocks;
+
+    private List<Integer> latches;
+
+    private Loop parent;
+
+    private List<Loop> children;
+
+    private int depth;
+
+    Loop(int header) {
+        this.header = header;
+        this.blocks = new BitSet();
+        this.latches = new ArrayList<Integer>(1);
+        this.children = new ArrayList<Loop>(0);
+    }
+
+    void setParent(Loop parent) {
+        this.parent = parent;
+        parent.children.add(this);
+    }
+
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    BitSet blockSet() {
+        return blocks;
+    }
+
+    void addLatch(int latch) {
+        latches.add(latch);
+    }
+
+    public int getHeader() {
+        return header;
+    }
+
+    public boolean contains(int bbNum) {
+        return blocks.get(bbNum);
+    }
+
+    /**
+     * @return the blocks of the loop, in increasing order
+     */
+    public int[] getBlocks() {
+        int[] result = new int[blocks.cardinality()];
+        int i = 0;
+        for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1)) {
+            result[i++] = b;
+        }
+        return result;
+    }
+
+    public int size() {
+        return blocks.cardinality();
+    }
+
+    /**
+     * @return the sources of the back edges
+     */
+    public List<Integer> getLatches() {
+        return latches;
+    }
+
+    /**
+     * @return the innermost loop containing this one, or null
+     */
+    public Loop getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the outermost loops nested directly in this one
+     */
+    public List<Loop> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return the nesting depth; an outermost loop has depth 1
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        return "loop " + header + " " + blocks;
+    }
+}
@@ -0,0 +1,126 @@
+package decaf.dataflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The natural loops of a `FlowGraph` and how they nest.
+ *
+ * A back edge is an edge whose target dominates its source. Each loop is
+ * found by walking backwards from the sources of the back edges into one
+ * header. Two natural loops are either disjoint or one contains the other,
+ * so the loops form a forest, with the innermost loop of a block being the
+ * smallest loop containing it. Cycles that are not natural loops (entered
+ * at more than one block) are not found.
+ */
+public class LoopForest {
+
+    private List<Loop> loops;
+
+    private List<Loop> roots;
+
+    private Loop[] innermost;
+
+    public LoopForest(FlowGraph graph) {
+        DominatorTree dom = graph.getDominators();
+        int n = graph.size();
+        Loop[] byHeader = new Loop[n];
+        loops = new ArrayList<Loop>();
+        for (BasicBlock bb : graph) {
+            for (int succ : graph.getSuccessors(bb.bbNum)) {
+                if (dom.dominates(succ, bb.bbNum)) {
+                    if (byHeader[succ] == null) {
+                        byHeader[succ] = new Loop(succ);
+                        loops.add(byHeader[succ]);
+                    }
+                    byHeader[succ].addLatch(bb.bbNum);
+                }
+            }
+        }
+        for (Loop loop : loops) {
+            findBody(graph, dom, loop);
+        }
+
+        // a loop is nested in the smallest other loop holding its header
+        Collections.sort(loops, new Comparator<Loop>() {
+
+            @Override
+            public int compare(Loop o1, Loop o2) {
+                return o1.size() - o2.size();
+            }
+
+        });
+        innermost = new Loop[n];
+        roots = new ArrayList<Loop>();
+        for (Loop loop : loops) {
+            for (int b : loop.getBlocks()) {
+                if (innermost[b] == null) {
+                    innermost[b] = loop;
+                }
+            }
+        }
+        for (Loop loop : loops) {
+            Loop parent = null;
+            for (Loop other : loops) {
+                if (other != loop && other.size() >= loop.size()
+                        && other.contains(loop.getHeader())) {
+                    parent = other;
+                    break;
+                }
+            }
+            if (parent == null) {
+                roots.add(loop);
+            } else {
+                loop.setParent(parent);
+            }
+        }
+        for (int i = loops.size() - 1; i >= 0; i--) {
+            Loop loop = loops.get(i);
+            loop.setDepth(loop.getParent() == null ? 1 : loop.getParent().getDepth() + 1);
+        }
+    }
+
+    private static void findBody(FlowGraph graph, DominatorTree dom, Loop loop) {
+        int header = loop.getHeader();
+        loop.blockSet().set(header);
+        List<Integer> work = new ArrayList<Integer>(loop.getLatches());
+        while (!work.isEmpty()) {
+            int b = work.remove(work.size() - 1);
+            if (loop.blockSet().get(b) || !dom.dominates(header, b)) {
+                continue; // seen, or unreachable from the entry
+            }
+            loop.blockSet().set(b);
+            work.addAll(graph.getPredecessors(b));
+        }
+    }
+
+    /**
+     * @return all loops, each before the loops containing it
+     */
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    /**
+     * @return the outermost loops
+     */
+    public List<Loop> getRoots() {
+        return roots;
+    }
+
+    /**
+     * @return the innermost loop containing block `bbNum`, or null
+     */
+    public Loop getLoopOf(int bbNum) {
+        return innermost[bbNum];
+    }
+
+    /**
+     * @return the number of loops containing block `bbNum`
+     */
+    public int getDepth(int bbNum) {
+        return innermost[bbNum] == null ? 0 : innermost[bbNum].getDepth();
+    }
+}
@@ -0,0 +1,153 @@
+package decaf.dataflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Reaching definitions: a forward union problem whose facts are the
+ * definition sites of the function.
+ *
+ * Every TAC that writes a temp is a definition site; sites are numbered in
+ * the order of the blocks and TACs of the graph. A site kills every other
+ * site of the same temp. Once solved, the DU chains of every block are read
+ * off in one forward sweep.
+ */
+public class ReachingDefinitions extends DataflowProblem {
+
+    private FlowGraph graph;
+
+    /**
+     * Definition site -> the TAC that defines it.
+     */
+    private List<Tac> sites;
+
+    /**
+     * `Temp.index` -> definition sites of that temp.
+     */
+    private List<List<Integer>> sitesOfTemp;
+
+    /**
+     * `tac.id - firstId` -> definition site of that TAC, or -1.
+     */
+    private int[] siteOfId;
+
+    private int firstId;
+
+    private DataflowSolver solution;
+
+    public ReachingDefinitions(FlowGraph graph) {
+        this.graph = graph;
+        numberSites();
+        solution = new DataflowSolver(graph, this);
+    }
+
+    private void numberSites() {
+        sites = new ArrayList<Tac>();
+        TempIndex temps = graph.getTemps();
+        sitesOfTemp = new ArrayList<List<Integer>>(temps.size());
+        for (int i = 0; i < temps.size(); i++) {
+            sitesOfTemp.add(new ArrayList<Integer>(1));
+        }
+        int lastId = -1;
+        firstId = Integer.MAX_VALUE;
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                firstId = Math.min(firstId, tac.id);
+                lastId = Math.max(lastId, tac.id);
+            }
+        }
+        siteOfId = new int[Math.max(lastId - firstId + 1, 0)];
+        Arrays.fill(siteOfId, -1);
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                Temp def = tac.def();
+                if (def != null) {
+                    sitesOfTemp.get(def.index).add(sites.size());
+                    siteOfId[tac.id - firstId] = sites.size();
+                    sites.add(tac);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Direction direction() {
+        return Direction.FORWARD;
+    }
+
+    @Override
+    public Meet meet() {
+        return Meet.UNION;
+    }
+
+    @Override
+    public int universe() {
+        return sites.size();
+    }
+
+    @Override
+    public void transfer(Tac tac, BitSet gen, BitSet kill) {
+        Temp def = tac.def();
+        if (def != null) {
+            for (int other : sitesOfTemp.get(def.index)) {
+                kill.set(other);
+            }
+            gen.set(siteOfId[tac.id - firstId]);
+        }
+    }
+
+    /**
+     * Walk every block forward from `in(b)`, adding each use to the DU chain
+     * of the definitions of the used temp that reach it.
+     */
+    public void buildDUChains() {
+        List<Set<Integer>> chains = new ArrayList<Set<Integer>>(sites.size());
+        for (int i = 0; i < sites.size(); i++) {
+            chains.add(new TreeSet<Integer>());
+        }
+        BitSet reaching = new BitSet();
+        for (BasicBlock bb : graph) {
+            reaching.clear();
+            reaching.or(solution.getIn(bb.bbNum));
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                for (Temp use : tac.uses()) {
+                    addUse(chains, reaching, use, tac.id);
+                }
+                Temp def = tac.def();
+                if (def != null) {
+                    int site = siteOfId[tac.id - firstId];
+                    for (int other : sitesOfTemp.get(def.index)) {
+                        reaching.clear(other);
+                    }
+                    reaching.set(site);
+                    bb.setDUChain(tac.id, def, chains.get(site));
+                }
+            }
+            if (bb.var != null) {
+                addUse(chains, reaching, bb.var, bb.endId);
+            }
+        }
+    }
+
+    private void addUse(List<Set<Integer>> chains, BitSet reaching, Temp use, int pos) {
+        for (int site : sitesOfTemp.get(use.index)) {
+            if (reaching.get(site)) {
+                chains.get(site).add(pos);
+            }
+        }
+    }
+
+    /**
+     * @return number of block visits the solver needed to converge
+     */
+    public int getIterations() {
+        return solution.getIterations();
+    }
+}
@@ -0,0 +1,118 @@
+package decaf.dataflow;
+
+import java.util.Arrays;
+
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Liveness at every TAC of one basic block, without keeping a set per TAC.
+ *
+ * Only the references to temps inside the block are stored, as one sorted
+ * array keyed by (temp, position); the position of a reference is the `id`
+ * of its TAC, or `endId` for the temp tested/returned at the end of the
+ * block. A temp is live just before position `p` iff its first reference at
+ * or after `p` reads it, or it has no such reference and is live out of the
+ * block. Memory is proportional to the number of operands in the block and a
+ * query is a binary search.
+ */
+public class TacLiveness {
+
+    private static final long USE = 1;
+
+    /**
+     * (temp.index << 32) | (position << 1) | (1 if the reference reads the temp).
+     */
+    private long[] refs;
+
+    private TempSet liveOut;
+
+    private TempIndex temps;
+
+    public TacLiveness(BasicBlock bb, TempIndex temps) {
+        this.temps = temps;
+        this.liveOut = bb.liveOut;
+        int n = bb.var == null ? 0 : 1;
+        for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+            n += tac.uses().length + (tac.def() == null ? 0 : 1);
+        }
+        long[] all = new long[n];
+        n = 0;
+        for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+            for (Temp use : tac.uses()) {
+                all[n++] = key(use, tac.id) | USE;
+            }
+            Temp def = tac.def();
+            if (def != null) {
+                all[n++] = key(def, tac.id);
+            }
+        }
+        if (bb.var != null) {
+            all[n++] = key(bb.var, bb.endId) | USE;
+        }
+        Arrays.sort(all);
+
+        // a TAC that both reads and writes a temp counts as a read
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m > 0 && (all[m - 1] | USE) == (all[i] | USE)) {
+                all[m - 1] |= all[i];
+            } else {
+                all[m++] = all[i];
+            }
+        }
+        refs = Arrays.copyOf(all, m);
+    }
+
+    private static long key(Temp t, int pos) {
+        return ((long) t.index << 32) | ((long) pos << 1);
+    }
+
+    /**
+     * @return index of the first reference of `t` at or after `pos`, or -1
+     */
+    private int nextRef(Temp t, int pos) {
+        long k = key(t, pos);
+        int lo = 0, hi = refs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (refs[mid] < k) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < refs.length && (refs[lo] >>> 32) == t.index) {
+            return lo;
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether `t` is live just before position `pos`
+     */
+    public boolean isLiveBefore(int pos, Temp t) {
+        if (!temps.contains(t)) {
+            return false;
+        }
+        int r = nextRef(t, pos);
+        if (r < 0) {
+            return liveOut.contains(t);
+        }
+        return (refs[r] & USE) != 0;
+    }
+
+    /**
+     * @return whether `t` is live just before `tac` executes
+     */
+    public boolean isLiveBefore(Tac tac, Temp t) {
+        return isLiveBefore(tac.id, t);
+    }
+
+    /**
+     * @return whether `t` is live right after `tac` executes
+     */
+    public boolean isLiveAfter(Tac tac, Temp t) {
+        return isLiveBefore(tac.id + 1, t);
+    }
+}
@@ -0,0 +1,80 @@
+package decaf.dataflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Dense numbering of the temps used in one function.
+ *
+ * Every non-constant `Temp` of the function gets an index in [0, size()),
+ * kept in `Temp.index`. Indices follow the order of `Temp.id`, so walking a
+ * bit vector by index visits the temps in the same order as `ID_COMPARATOR`.
+ */
+public class TempIndex {
+
+    private List<Temp> temps;
+
+    public TempIndex() {
+        temps = new ArrayList<Temp>();
+    }
+
+    /**
+     * Number all temps referenced by the blocks of `graph`.
+     */
+    public static TempIndex of(Iterable<BasicBlock> graph) {
+        List<Temp> found = new ArrayList<Temp>();
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                collect(found, tac.op0);
+                collect(found, tac.op1);
+                collect(found, tac.op2);
+                if (tac.args != null) {
+                    for (Temp arg : tac.args) {
+                        collect(found, arg);
+                    }
+                }
+            }
+            collect(found, bb.var);
+        }
+        Collections.sort(found, Temp.ID_COMPARATOR);
+        TempIndex index = new TempIndex();
+        for (Temp t : found) {
+            index.add(t);
+        }
+        return index;
+    }
+
+    private static void collect(List<Temp> found, Temp t) {
+        if (t != null && !t.isConst && t.index != -2) {
+            t.index = -2; // mark as collected
+            found.add(t);
+        }
+    }
+
+    /**
+     * Give `t` the next free index if it does not have one in this numbering yet.
+     */
+    public int add(Temp t) {
+        if (!contains(t)) {
+            t.index = temps.size();
+            temps.add(t);
+        }
+        return t.index;
+    }
+
+    public boolean contains(Temp t) {
+        return t.index >= 0 && t.index < temps.size() && temps.get(t.index) == t;
+    }
+
+    public Temp get(int index) {
+        return temps.get(index);
+    }
+
+    public int size() {
+        return temps.size();
+    }
+}
@@ -0,0 +1,261 @@
+package decaf.dataflow;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import decaf.tac.Temp;
+
+/**
+ * A set of temps of one function, stored as a word-packed bit vector over a
+ * `TempIndex`.
+ *
+ * Iteration visits the temps in increasing `Temp.id` order, so printing a
+ * `TempSet` gives the same result as printing a `TreeSet` ordered by
+ * `Temp.ID_COMPARATOR`.
+ */
+public class TempSet extends AbstractSet<Temp> {
+
+    private TempIndex index;
+
+    private long[] words;
+
+    public TempSet(TempIndex index) {
+        this.index = index;
+        this.words = new long[(index.size() + 63) >> 6];
+    }
+
+    public TempSet(TempSet other) {
+        this.index = other.index;
+        this.words = other.words.clone();
+    }
+
+    private void ensureCapacity(int nwords) {
+        if (words.length < nwords) {
+            words = Arrays.copyOf(words, Math.max(nwords, (index.size() + 63) >> 6));
+        }
+    }
+
+    public boolean get(int i) {
+        int w = i >> 6;
+        return w < words.length && (words[w] & (1L << i)) != 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof Temp) {
+            Temp t = (Temp) o;
+            return index.contains(t) && get(t.index);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(Temp t) {
+        if (!index.contains(t)) {
+            throw new IllegalArgumentException(t + " is not numbered in this function");
+        }
+        int w = t.index >> 6;
+        ensureCapacity(w + 1);
+        long old = words[w];
+        words[w] |= 1L << t.index;
+        return words[w] != old;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (contains(o)) {
+            int i = ((Temp) o).index;
+            words[i >> 6] &= ~(1L << i);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Temp> c) {
+        if (c instanceof TempSet) {
+            return union((TempSet) c);
+        }
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (c instanceof TempSet) {
+            return subtract((TempSet) c);
+        }
+        return super.removeAll(c);
+    }
+
+    /**
+     * this = this | other.
+     *
+     * @return whether this set changed
+     */
+    public boolean union(TempSet other) {
+        ensureCapacity(other.words.length);
+        long changed = 0;
+        for (int i = 0; i < other.words.length; i++) {
+            long old = words[i];
+            words[i] = old | other.words[i];
+            changed |= old ^ words[i];
+        }
+        return changed != 0;
+    }
+
+    /**
+     * this = this & ~other.
+     *
+     * @return whether this set changed
+     */
+    public boolean subtract(TempSet other) {
+        long changed = 0;
+        int n = Math.min(words.length, other.words.length);
+        for (int i = 0; i < n; i++) {
+            long old = words[i];
+            words[i] = old & ~other.words[i];
+            changed |= old ^ words[i];
+        }
+        return changed != 0;
+    }
+
+    /**
+     * this = this | (a & ~b), in one pass and without an intermediate set.
+     *
+     * @return whether this set changed
+     */
+    public boolean unionDifference(TempSet a, TempSet b) {
+        ensureCapacity(a.words.length);
+        long changed = 0;
+        for (int i = 0; i < a.words.length; i++) {
+            long old = words[i];
+            long kill = i < b.words.length ? b.words[i] : 0;
+            words[i] = old | (a.words[i] & ~kill);
+            changed |= old ^ words[i];
+        }
+        return changed != 0;
+    }
+
+    /**
+     * Make this set equal to `other`.
+     */
+    public void assign(TempSet other) {
+        if (words.length < other.words.length) {
+            words = other.words.clone();
+        } else {
+            System.arraycopy(other.words, 0, words, 0, other.words.length);
+            Arrays.fill(words, other.words.length, words.length, 0);
+        }
+    }
+
+    /**
+     * Make this set hold the temps whose indices are set in `bits`.
+     */
+    public void assign(BitSet bits) {
+        long[] w = bits.toLongArray();
+        ensureCapacity(w.length);
+        System.arraycopy(w, 0, words, 0, w.length);
+        Arrays.fill(words, w.length, words.length, 0);
+    }
+
+    @Override
+    public int size() {
+        int n = 0;
+        for (long w : words) {
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (long w : words) {
+            if (w != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof TempSet) {
+            long[] a = words, b = ((TempSet) o).words;
+            int n = Math.max(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                if ((i < a.length ? a[i] : 0) != (i < b.length ? b[i] : 0)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /**
+     * @return the smallest index >= `from` in this set, or -1 if there is none
+     */
+    public int nextSetBit(int from) {
+        int w = from >> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    @Override
+    public Iterator<Temp> iterator() {
+        return new Iterator<Temp>() {
+            private int next = nextSetBit(0);
+
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Temp next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = nextSetBit(next + 1);
+                return index.get(last);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                words[last >> 6] &= ~(1L << last);
+                last = -1;
+            }
+        };
+    }
+}
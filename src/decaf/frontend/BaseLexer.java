@@ -2,7 +2,7 @@ package decaf.frontend;
 
 import java.io.IOException;
 
-import decaf.Driver;
+import decaf.CompilationContext;
 import decaf.Location;
 import decaf.error.DecafError;
 import decaf.error.IntTooLargeError;
@@ -12,16 +12,22 @@ public abstract class BaseLexer {
 
 	private Parser parser;
 
+	private CompilationContext context;
+
 	public void setParser(Parser parser) {
 		this.parser = parser;
 	}
 
+	public void setContext(CompilationContext context) {
+		this.context = context;
+	}
+
 	abstract int yylex() throws IOException;
 
 	abstract Location getLocation();
 
 	protected void issueError(DecafError error) {
-		Driver.getDriver().issueError(error);
+		context.issueError(error);
 	}
 
 	protected void setSemantic(Location where, SemValue v) {
@@ -54,7 +60,7 @@ public abstract class BaseLexer {
 			setSemantic(getLocation(), SemValue.createLiteral(
 					Tree.INT, Integer.decode(ival)));
 		} catch (NumberFormatException e) {
-			Driver.getDriver().issueError(
+			context.issueError(
 					new IntTooLargeError(getLocation(), ival));
 		}
 		return Parser.LITERAL;
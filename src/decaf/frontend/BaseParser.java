@@ -1,6 +1,6 @@
 package decaf.frontend;
 
-import decaf.Driver;
+import decaf.CompilationContext;
 import decaf.tree.Tree;
 import decaf.error.DecafError;
 import decaf.error.MsgError;
@@ -8,22 +8,28 @@ import decaf.error.MsgError;
 public abstract class BaseParser {
 	private Lexer lexer;
 
+	private CompilationContext context;
+
 	protected Tree.TopLevel tree;
 
 	public void setLexer(Lexer lexer) {
 		this.lexer = lexer;
 	}
 
+	public void setContext(CompilationContext context) {
+		this.context = context;
+	}
+
 	public Tree.TopLevel getTree() {
 		return tree;
 	}
 
 	protected void issueError(DecafError error) {
-		Driver.getDriver().issueError(error);
+		context.issueError(error);
 	}
 
 	void yyerror(String msg) {
-		Driver.getDriver().issueError(
+		context.issueError(
 				new MsgError(lexer.getLocation(), msg));
 	}
 
@@ -82,7 +82,7 @@ public final class Intrinsic {
 	 *            返回类型
 	 */
 	private Intrinsic(String name, int numArgs, BaseType type) {
-		this.label = Label.createLabel(name, false);
+		this.label = new Label(0, name, false);
 		this.numArgs = numArgs;
 		this.type = type;
 	}
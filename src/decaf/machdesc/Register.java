@@ -6,5 +6,11 @@ public abstract class Register {
 
 	public Temp var;
 
+	/**
+	 * @return whether a function gives the register back as it found it, so
+	 *         that a value in it survives calls
+	 */
+	public abstract boolean isCalleeSaved();
+
 	public abstract String toString();
 }
@@ -0,0 +1,478 @@
+package decaf.optimize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.DominatorTree;
+import decaf.dataflow.FlowGraph;
+import decaf.machdesc.Intrinsic;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Removal of the runtime checks of array indices and sizes that can be
+ * proven to pass, over a `FlowGraph` in SSA form.
+ *
+ * A check is a conditional branch one of whose successors halts the program
+ * (see `FlowGraph.removeEdgesAfterHalt`); its condition compares an index
+ * with 0 or with the length of the array. The comparison is decided from:
+ * - the range of values each temp may hold, found by iterating over the SSA
+ *   graph; a loop counter that starts at a constant and is only incremented
+ *   has the constant as lower bound, as an `add` that overflows traps;
+ * - the comparisons known to hold at the check: those of the conditional
+ *   branches on the path from the entry that every path to the check takes.
+ *   Inside `for (i = 0; i < a.length(); ...)` that is `i < a.length()`, and
+ *   after one access `a[i]` it is the checks of that access.
+ *
+ * A check that always passes becomes an unconditional branch, and the
+ * comparison is removed when nothing else reads it.
+ */
+public class BoundsCheckElimination {
+
+    private static final long MIN = Integer.MIN_VALUE;
+
+    private static final long MAX = Integer.MAX_VALUE;
+
+    private FlowGraph graph;
+
+    private DefUse du;
+
+    /**
+     * `Temp.index` -> the range [lo, hi] of its values; empty (lo > hi) for
+     * temps not evaluated yet.
+     */
+    private long[] lo;
+
+    private long[] hi;
+
+    /**
+     * Comparisons known to hold at the check being decided: `factLeft[k] <
+     * factRight[k]`, or `<=` where `factStrict[k]` is false.
+     */
+    private List<Temp> factLeft;
+
+    private List<Temp> factRight;
+
+    private List<Boolean> factStrict;
+
+    private int eliminated;
+
+    private BoundsCheckElimination(FlowGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return the number of checks removed
+     */
+    public static int eliminate(FlowGraph graph) {
+        BoundsCheckElimination bce = new BoundsCheckElimination(graph);
+        bce.run();
+        return bce.eliminated;
+    }
+
+    private void run() {
+        du = new DefUse(graph);
+        computeRanges();
+        DominatorTree dom = graph.getDominators();
+        factLeft = new ArrayList<Temp>();
+        factRight = new ArrayList<Temp>();
+        factStrict = new ArrayList<Boolean>();
+        // decide every check before removing any, as each one removed takes
+        // the facts it establishes with it
+        int n = graph.size();
+        int[] keep = new int[n];
+        for (int b = 0; b < n; b++) {
+            keep[b] = -1;
+            BasicBlock bb = graph.getBlock(b);
+            if (bb.endKind != BasicBlock.EndKind.BY_BEQZ && bb.endKind != BasicBlock.EndKind.BY_BNEZ
+                    || !halts(graph.getBlock(bb.next[0])) && !halts(graph.getBlock(bb.next[1]))) {
+                continue;
+            }
+            collectFacts(dom, b);
+            Boolean value = decide(bb.var);
+            if (value != null) {
+                // BEQZ goes to next[0] when the condition is false, BNEZ when
+                // it is true
+                boolean toFirst = value == (bb.endKind == BasicBlock.EndKind.BY_BNEZ);
+                keep[b] = bb.next[toFirst ? 0 : 1];
+            }
+        }
+        for (int b = 0; b < n; b++) {
+            if (keep[b] >= 0) {
+                Temp cond = graph.getBlock(b).var;
+                graph.removeBranch(b, keep[b]);
+                du.getEndUses(cond).remove(Integer.valueOf(b));
+                removeIfUnused(cond);
+                eliminated++;
+            }
+        }
+        graph.removeUnreachableBlocks();
+    }
+
+    private static boolean halts(BasicBlock bb) {
+        for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+            if (tac.opc == Tac.Kind.DIRECT_CALL && tac.label == Intrinsic.HALT.label) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the ranges by evaluating the TACs in reverse postorder until
+     * nothing changes. A PHI whose range grows after it has been evaluated
+     * once is widened to the whole of `int` in that direction, so loops
+     * settle after a few rounds.
+     */
+    private void computeRanges() {
+        int n = du.getTemps().size();
+        lo = new long[n];
+        hi = new long[n];
+        for (int i = 0; i < n; i++) {
+            Temp t = du.getTemps().get(i);
+            if (du.getDef(t) == null) {
+                lo[i] = MIN;
+                hi[i] = MAX;
+            } else {
+                lo[i] = MAX;
+                hi[i] = MIN;
+            }
+        }
+        int[] order = graph.reversePostorder();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b : order) {
+                for (Tac tac = graph.getBlock(b).tacList; tac != null; tac = tac.next) {
+                    Temp def = tac.def();
+                    if (def != null) {
+                        changed |= evaluate(tac, def.index);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the range of the temp `tac` defines changed
+     */
+    private boolean evaluate(Tac tac, int d) {
+        if (tac.opc != Tac.Kind.PHI) {
+            for (Temp use : tac.uses()) {
+                if (lo(use) > hi(use)) {
+                    return false; // not evaluated yet
+                }
+            }
+        }
+        long l;
+        long h;
+        switch (tac.opc) {
+        case LOAD_IMM4:
+            l = h = tac.op1.value;
+            break;
+        case ASSIGN:
+            l = lo(tac.op1);
+            h = hi(tac.op1);
+            break;
+        case ADD: // add, sub and neg trap instead of wrapping around
+            l = lo(tac.op1) + lo(tac.op2);
+            h = hi(tac.op1) + hi(tac.op2);
+            break;
+        case SUB:
+            l = lo(tac.op1) - hi(tac.op2);
+            h = hi(tac.op1) - lo(tac.op2);
+            break;
+        case NEG:
+            l = -hi(tac.op1);
+            h = -lo(tac.op1);
+            break;
+        case LNOT: // bitwise
+            l = -hi(tac.op1) - 1;
+            h = -lo(tac.op1) - 1;
+            break;
+        case MUL: {
+            long[] p = { lo(tac.op1) * lo(tac.op2), lo(tac.op1) * hi(tac.op2),
+                    hi(tac.op1) * lo(tac.op2), hi(tac.op1) * hi(tac.op2) };
+            l = Math.min(Math.min(p[0], p[1]), Math.min(p[2], p[3]));
+            h = Math.max(Math.max(p[0], p[1]), Math.max(p[2], p[3]));
+            if (l < MIN || h > MAX) {
+                l = MIN;
+                h = MAX;
+            }
+            break;
+        }
+        case DIV:
+            if (lo(tac.op1) >= 0 && lo(tac.op2) > 0) {
+                l = 0;
+                h = hi(tac.op1);
+            } else {
+                l = MIN;
+                h = MAX;
+            }
+            break;
+        case MOD: {
+            // the remainder has the sign of the dividend
+            long m = Math.max(Math.abs(lo(tac.op2)), Math.abs(hi(tac.op2))) - 1;
+            l = lo(tac.op1) >= 0 ? 0 : Math.max(lo(tac.op1), -m);
+            h = hi(tac.op1) <= 0 ? 0 : Math.min(hi(tac.op1), m);
+            break;
+        }
+        case GTR:
+        case GEQ:
+        case EQU:
+        case NEQ:
+        case LEQ:
+        case LES:
+            l = 0;
+            h = 1;
+            break;
+        case LAND:
+        case LOR:
+            if (lo(tac.op1) >= 0 && hi(tac.op1) <= 1 && lo(tac.op2) >= 0 && hi(tac.op2) <= 1) {
+                l = 0;
+                h = 1;
+            } else {
+                l = MIN;
+                h = MAX;
+            }
+            break;
+        case LOAD:
+            if (isLength(tac)) {
+                l = 0;
+                h = MAX;
+            } else {
+                l = MIN;
+                h = MAX;
+            }
+            break;
+        case PHI:
+            l = MAX;
+            h = MIN;
+            for (Temp arg : tac.args) {
+                if (lo(arg) <= hi(arg)) {
+                    l = Math.min(l, lo(arg));
+                    h = Math.max(h, hi(arg));
+                }
+            }
+            if (lo[d] <= hi[d]) {
+                if (l < lo[d]) {
+                    l = MIN;
+                }
+                if (h > hi[d]) {
+                    h = MAX;
+                }
+            }
+            break;
+        default:
+            l = MIN;
+            h = MAX;
+            break;
+        }
+        if (l > h) {
+            return false; // no argument of the PHI is evaluated yet
+        }
+        l = Math.max(l, MIN);
+        h = Math.min(h, MAX);
+        if (l == lo[d] && h == hi[d]) {
+            return false;
+        }
+        lo[d] = l;
+        hi[d] = h;
+        return true;
+    }
+
+    private long lo(Temp t) {
+        return lo[t.index];
+    }
+
+    private long hi(Temp t) {
+        return hi[t.index];
+    }
+
+    /**
+     * @return whether `tac` loads the length of an array
+     */
+    private static boolean isLength(Tac tac) {
+        return tac.opc == Tac.Kind.LOAD && tac.invariant && tac.op2.value < 0;
+    }
+
+    /**
+     * Gather the comparisons known to hold at the end of block `b`: for `b`
+     * and each block dominating it that has a single predecessor ending in
+     * a conditional branch, the condition of that branch or its negation.
+     */
+    private void collectFacts(DominatorTree dom, int b) {
+        factLeft.clear();
+        factRight.clear();
+        factStrict.clear();
+        for (int d = b; d >= 0; d = dom.getIdom(d)) {
+            List<Integer> preds = graph.getPredecessors(d);
+            if (preds.size() != 1) {
+                continue;
+            }
+            BasicBlock p = graph.getBlock(preds.get(0));
+            if (p.endKind != BasicBlock.EndKind.BY_BEQZ && p.endKind != BasicBlock.EndKind.BY_BNEZ
+                    || p.next[0] == p.next[1]) {
+                continue;
+            }
+            boolean holds = (p.next[0] == d) == (p.endKind == BasicBlock.EndKind.BY_BNEZ);
+            Tac cmp = du.getDef(root(p.var));
+            if (cmp == null) {
+                continue;
+            }
+            switch (cmp.opc) {
+            case LES: // a < b, or else b <= a
+                addFact(holds ? cmp.op1 : cmp.op2, holds ? cmp.op2 : cmp.op1, holds);
+                break;
+            case LEQ:
+                addFact(holds ? cmp.op1 : cmp.op2, holds ? cmp.op2 : cmp.op1, !holds);
+                break;
+            case GTR:
+                addFact(holds ? cmp.op2 : cmp.op1, holds ? cmp.op1 : cmp.op2, holds);
+                break;
+            case GEQ:
+                addFact(holds ? cmp.op2 : cmp.op1, holds ? cmp.op1 : cmp.op2, !holds);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private void addFact(Temp left, Temp right, boolean strict) {
+        factLeft.add(left);
+        factRight.add(right);
+        factStrict.add(strict);
+    }
+
+    /**
+     * @return the value of the comparison `cond`, or null if it is not known
+     */
+    private Boolean decide(Temp cond) {
+        Tac cmp = du.getDef(root(cond));
+        if (cmp == null) {
+            return null;
+        }
+        switch (cmp.opc) {
+        case LES:
+            return compare(cmp.op1, cmp.op2, true);
+        case LEQ:
+            return compare(cmp.op1, cmp.op2, false);
+        case GTR:
+            return compare(cmp.op2, cmp.op1, true);
+        case GEQ:
+            return compare(cmp.op2, cmp.op1, false);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return whether `x < y` (or `x <= y` if not `strict`), or null if it is
+     *         not known
+     */
+    private Boolean compare(Temp x, Temp y, boolean strict) {
+        if (lessThan(x, y, strict)) {
+            return true;
+        }
+        if (lessThan(y, x, !strict)) {
+            return false;
+        }
+        return null;
+    }
+
+    /**
+     * @return whether `x < y` (or `x <= y` if not `strict`) can be shown
+     *         from the ranges and the facts
+     */
+    private boolean lessThan(Temp x, Temp y, boolean strict) {
+        if (strict ? hi(x) < lo(y) : hi(x) <= lo(y) || same(x, y)) {
+            return true;
+        }
+        // x <= a < b <= y, x <= a <= b <= y and so on
+        for (int k = 0; k < factLeft.size(); k++) {
+            Temp a = factLeft.get(k);
+            Temp b = factRight.get(k);
+            boolean s = factStrict.get(k);
+            if (s || !strict) {
+                if (atMost(x, a, false) && atMost(b, y, false)) {
+                    return true;
+                }
+            } else if (atMost(x, a, true) && atMost(b, y, false)
+                    || atMost(x, a, false) && atMost(b, y, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether `x < y` (or `x <= y` if not `strict`) follows from the
+     *         ranges alone, or from `x` and `y` being the same value
+     */
+    private boolean atMost(Temp x, Temp y, boolean strict) {
+        return strict ? hi(x) < lo(y) : hi(x) <= lo(y) || same(x, y);
+    }
+
+    /**
+     * @return whether `x` and `y` surely hold the same value: they are copies
+     *         of one temp, or lengths of the same array
+     */
+    private boolean same(Temp x, Temp y) {
+        x = root(x);
+        y = root(y);
+        if (x == y) {
+            return true;
+        }
+        Tac dx = du.getDef(x);
+        Tac dy = du.getDef(y);
+        return dx != null && dy != null && isLength(dx) && isLength(dy)
+                && dx.op2.value == dy.op2.value && same(dx.op1, dy.op1);
+    }
+
+    /**
+     * @return the temp `t` is a copy of, following copies of copies
+     */
+    private Temp root(Temp t) {
+        Tac def = du.getDef(t);
+        while (def != null && def.opc == Tac.Kind.ASSIGN) {
+            t = def.op1;
+            def = du.getDef(t);
+        }
+        return t;
+    }
+
+    /**
+     * Remove the TAC defining `t` if the branch just removed was its only
+     * use, then the TACs defining its operands that were only used by it.
+     */
+    private void removeIfUnused(Temp t) {
+        Tac def = du.getDef(t);
+        if (def == null || !du.getUses(t).isEmpty() || !du.getEndUses(t).isEmpty()) {
+            return;
+        }
+        switch (def.opc) {
+        case LES:
+        case LEQ:
+        case GTR:
+        case GEQ:
+        case ASSIGN:
+        case LOAD_IMM4:
+            break;
+        case LOAD:
+            if (isLength(def)) {
+                break;
+            }
+            return;
+        default:
+            return;
+        }
+        graph.getBlock(def.bbNum).remove(def);
+        for (Temp use : def.uses()) {
+            List<Tac> uses = du.getUses(use);
+            uses.remove(def);
+            removeIfUnused(use);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package decaf.optimize;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) over a
+ * `FlowGraph` in SSA form.
+ *
+ * Every temp starts undefined and is only lowered, to a constant and then to
+ * "not a constant". Blocks are only evaluated once an edge into them is found
+ * to be executable, and a PHI meets only the values flowing in over
+ * executable edges, so constants on paths that are never taken do not spoil
+ * the merge.
+ *
+ * Afterwards every temp found to be constant is loaded with `LOAD_IMM4`
+ * instead of being computed, a conditional branch on a constant becomes an
+ * unconditional one, and the blocks that can no longer be reached are
+ * removed. Folding follows the MIPS code the TAC would have become: an
+ * operation that traps (an overflowing `add`, `sub` or `neg`, a division by
+ * zero) is left to trap at run time.
+ */
+public class ConstantPropagation {
+
+    private static final int UNDEFINED = 0;
+
+    private static final int CONSTANT = 1;
+
+    private static final int VARYING = 2;
+
+    private FlowGraph graph;
+
+    private DefUse du;
+
+    private int[] state;
+
+    private int[] value;
+
+    private boolean[] executable;
+
+    /**
+     * `edgeExecutable[b][j]`: whether the edge from the `j`-th predecessor of
+     * block `b` is executable.
+     */
+    private boolean[][] edgeExecutable;
+
+    /**
+     * Edges still to be followed, as pairs (from, to).
+     */
+    private Deque<Integer> flowWork;
+
+    /**
+     * Temps whose value was lowered and whose uses are to be evaluated again.
+     */
+    private Deque<Temp> ssaWork;
+
+    private int folded;
+
+    private int branchesFolded;
+
+    private ConstantPropagation(FlowGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return whether the graph was changed
+     */
+    public static boolean propagate(FlowGraph graph) {
+        ConstantPropagation cp = new ConstantPropagation(graph);
+        cp.solve();
+        return cp.rewrite();
+    }
+
+    private void solve() {
+        du = new DefUse(graph);
+        int n = du.getTemps().size();
+        state = new int[n];
+        value = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (du.getDef(du.getTemps().get(i)) == null) {
+                state[i] = VARYING; // the value on entry is unknown
+            }
+        }
+        executable = new boolean[graph.size()];
+        edgeExecutable = new boolean[graph.size()][];
+        for (int b = 0; b < graph.size(); b++) {
+            edgeExecutable[b] = new boolean[graph.getPredecessors(b).size()];
+        }
+        flowWork = new ArrayDeque<Integer>();
+        ssaWork = new ArrayDeque<Temp>();
+
+        executable[0] = true;
+        visitBlock(graph.getBlock(0));
+        while (!flowWork.isEmpty() || !ssaWork.isEmpty()) {
+            while (!flowWork.isEmpty()) {
+                int from = flowWork.poll();
+                int to = flowWork.poll();
+                int j = graph.getPredecessors(to).indexOf(from);
+                if (edgeExecutable[to][j]) {
+                    continue;
+                }
+                edgeExecutable[to][j] = true;
+                BasicBlock bb = graph.getBlock(to);
+                if (!executable[to]) {
+                    executable[to] = true;
+                    visitBlock(bb);
+                } else {
+                    for (Tac phi = bb.tacList; phi != null && phi.opc == Tac.Kind.PHI; phi = phi.next) {
+                        visit(phi);
+                    }
+                }
+            }
+            while (!ssaWork.isEmpty()) {
+                Temp t = ssaWork.poll();
+                for (Tac use : du.getUses(t)) {
+                    if (executable[use.bbNum]) {
+                        visit(use);
+                    }
+                }
+                for (int b : du.getEndUses(t)) {
+                    if (executable[b]) {
+                        visitEnd(graph.getBlock(b));
+                    }
+                }
+            }
+        }
+    }
+
+    private void visitBlock(BasicBlock bb) {
+        for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+            visit(tac);
+        }
+        visitEnd(bb);
+    }
+
+    private void visit(Tac tac) {
+        Temp def = tac.def();
+        if (def == null) {
+            return;
+        }
+        int s;
+        int v = 0;
+        switch (tac.opc) {
+        case LOAD_IMM4:
+            s = CONSTANT;
+            v = tac.op1.value;
+            break;
+        case ASSIGN:
+            s = state[tac.op1.index];
+            v = value[tac.op1.index];
+            break;
+        case PHI:
+            s = UNDEFINED;
+            boolean[] edges = edgeExecutable[tac.bbNum];
+            for (int j = 0; j < tac.args.length && s != VARYING; j++) {
+                if (!edges[j]) {
+                    continue;
+                }
+                int i = tac.args[j].index;
+                if (state[i] == UNDEFINED) {
+                    continue;
+                }
+                if (state[i] == VARYING || s == CONSTANT && value[i] != v) {
+                    s = VARYING;
+                } else {
+                    s = CONSTANT;
+                    v = value[i];
+                }
+            }
+            break;
+        case NEG:
+        case LNOT:
+            s = state[tac.op1.index];
+            if (s == CONSTANT) {
+                int a = value[tac.op1.index];
+                if (tac.opc == Tac.Kind.LNOT) {
+                    v = ~a; // `not` is bitwise
+                } else if (a == Integer.MIN_VALUE) {
+                    s = VARYING;
+                } else {
+                    v = -a;
+                }
+            }
+            break;
+        case ADD:
+        case SUB:
+        case MUL:
+        case DIV:
+        case MOD:
+        case LAND:
+        case LOR:
+        case GTR:
+        case GEQ:
+        case EQU:
+        case NEQ:
+        case LEQ:
+        case LES:
+            int s1 = state[tac.op1.index];
+            int s2 = state[tac.op2.index];
+            if (s1 == VARYING || s2 == VARYING) {
+                s = VARYING;
+            } else if (s1 == UNDEFINED || s2 == UNDEFINED) {
+                s = UNDEFINED;
+            } else {
+                long r = fold(tac.opc, value[tac.op1.index], value[tac.op2.index]);
+                if (r == (int) r) {
+                    s = CONSTANT;
+                    v = (int) r;
+                } else {
+                    s = VARYING;
+                }
+            }
+            break;
+        default:
+            // loads, calls and addresses
+            s = VARYING;
+            break;
+        }
+        lower(def, s, v);
+    }
+
+    /**
+     * @return the result of `a op b`, or a value out of the `int` range if
+     *         the instruction would trap
+     */
+    private static long fold(Tac.Kind op, int a, int b) {
+        switch (op) {
+        case ADD:
+            return (long) a + b;
+        case SUB:
+            return (long) a - b;
+        case MUL:
+            return a * b; // `mul` keeps the low word
+        case DIV:
+            return b == 0 || a == Integer.MIN_VALUE && b == -1 ? Long.MAX_VALUE : a / b;
+        case MOD:
+            return b == 0 || a == Integer.MIN_VALUE && b == -1 ? Long.MAX_VALUE : a % b;
+        case LAND:
+            return a & b;
+        case LOR:
+            return a | b;
+        case GTR:
+            return a > b ? 1 : 0;
+        case GEQ:
+            return a >= b ? 1 : 0;
+        case EQU:
+            return a == b ? 1 : 0;
+        case NEQ:
+            return a != b ? 1 : 0;
+        case LEQ:
+            return a <= b ? 1 : 0;
+        case LES:
+            return a < b ? 1 : 0;
+        default:
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private void lower(Temp t, int s, int v) {
+        int i = t.index;
+        if (s > state[i]) {
+            state[i] = s;
+            value[i] = v;
+            ssaWork.add(t);
+        }
+    }
+
+    private void visitEnd(BasicBlock bb) {
+        switch (bb.endKind) {
+        case BY_BRANCH:
+            addEdge(bb.bbNum, bb.next[0]);
+            break;
+        case BY_BEQZ:
+        case BY_BNEZ:
+            int taken = takenSuccessor(bb);
+            if (taken >= 0) {
+                addEdge(bb.bbNum, taken);
+            } else if (state[bb.var.index] == VARYING) {
+                addEdge(bb.bbNum, bb.next[0]);
+                addEdge(bb.bbNum, bb.next[1]);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return the successor a conditional branch always goes to, or -1 if its
+     *         condition is not a constant
+     */
+    private int takenSuccessor(BasicBlock bb) {
+        if (state[bb.var.index] != CONSTANT) {
+            return -1;
+        }
+        boolean zero = value[bb.var.index] == 0;
+        boolean jump = bb.endKind == BasicBlock.EndKind.BY_BEQZ ? zero : !zero;
+        return jump ? bb.next[0] : bb.next[1];
+    }
+
+    private void addEdge(int from, int to) {
+        flowWork.add(from);
+        flowWork.add(to);
+    }
+
+    private boolean rewrite() {
+        int n = graph.size();
+        for (int b = 0; b < n; b++) {
+            if (!executable[b]) {
+                continue;
+            }
+            BasicBlock bb = graph.getBlock(b);
+            Tac next;
+            for (Tac tac = bb.tacList; tac != null; tac = next) {
+                next = tac.next;
+                Temp def = tac.def();
+                if (def == null || state[def.index] != CONSTANT || tac.opc == Tac.Kind.LOAD_IMM4) {
+                    continue;
+                }
+                Temp c = graph.getContext().createConstTemp(value[def.index]);
+                if (tac.opc == Tac.Kind.PHI) {
+                    bb.remove(tac);
+                    bb.insertAfterPhis(Tac.genLoadImm4(def, c));
+                } else {
+                    tac.opc = Tac.Kind.LOAD_IMM4;
+                    tac.op1 = c;
+                    tac.op2 = null;
+                }
+                folded++;
+            }
+            if (bb.endKind == BasicBlock.EndKind.BY_BEQZ || bb.endKind == BasicBlock.EndKind.BY_BNEZ) {
+                int taken = takenSuccessor(bb);
+                if (taken >= 0) {
+                    graph.removeBranch(b, taken);
+                    branchesFolded++;
+                }
+            }
+        }
+        boolean removed = graph.removeUnreachableBlocks();
+        return folded > 0 || branchesFolded > 0 || removed;
+    }
+}
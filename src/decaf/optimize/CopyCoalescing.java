@@ -0,0 +1,193 @@
+package decaf.optimize;
+
+import java.util.BitSet;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.TempIndex;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Coalescing of copy-related temps of an analyzed `FlowGraph` (not in SSA
+ * form), before register allocation.
+ *
+ * Two temps interfere if one is live where the other is written, except
+ * that the destination of an `ASSIGN` does not interfere with its source
+ * there. The two temps of an `ASSIGN` that do not interfere are merged into
+ * one, which then interferes with the neighbours of both, and the copy
+ * between them goes away. The merged temp gets one register within a block
+ * and one stack slot across blocks, so the allocator no longer moves the
+ * value between them. Most copies left are those `SSADestructor` puts on
+ * the edges into loops and joins.
+ *
+ * A parameter has its slot in the caller's frame; it absorbs the temps
+ * merged with it, and two parameters are never merged.
+ */
+public class CopyCoalescing {
+
+    private FlowGraph graph;
+
+    private TempIndex temps;
+
+    private BitSet[] interferes;
+
+    /**
+     * `Temp.index` -> the temp it was merged into, itself if none.
+     */
+    private int[] parent;
+
+    private CopyCoalescing(FlowGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Merge the temps and analyze the graph again if any was merged.
+     *
+     * @return the number of copies removed
+     */
+    public static int coalesce(FlowGraph graph) {
+        CopyCoalescing cc = new CopyCoalescing(graph);
+        cc.buildInterference();
+        if (!cc.merge()) {
+            return 0;
+        }
+        int removed = cc.rename();
+        graph.analyze();
+        return removed;
+    }
+
+    private void buildInterference() {
+        temps = graph.getTemps();
+        int n = temps.size();
+        interferes = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            interferes[i] = new BitSet();
+        }
+        BitSet live = new BitSet(n);
+        for (BasicBlock bb : graph) {
+            live.clear();
+            for (Temp t : bb.liveOut) {
+                live.set(t.index);
+            }
+            if (bb.var != null) {
+                live.set(bb.var.index);
+            }
+            Tac last = bb.tacList;
+            while (last != null && last.next != null) {
+                last = last.next;
+            }
+            for (Tac tac = last; tac != null; tac = tac.prev) {
+                Temp def = tac.def();
+                if (def != null) {
+                    boolean copy = tac.opc == Tac.Kind.ASSIGN;
+                    for (int l = live.nextSetBit(0); l >= 0; l = live.nextSetBit(l + 1)) {
+                        if (l != def.index && !(copy && l == tac.op1.index)) {
+                            addEdge(def.index, l);
+                        }
+                    }
+                    live.clear(def.index);
+                }
+                for (Temp use : tac.uses()) {
+                    live.set(use.index);
+                }
+            }
+            if (bb.bbNum == 0) {
+                // parameters and temps read before written all hold a value on
+                // entry
+                for (int a = live.nextSetBit(0); a >= 0; a = live.nextSetBit(a + 1)) {
+                    for (int b = live.nextSetBit(a + 1); b >= 0; b = live.nextSetBit(b + 1)) {
+                        addEdge(a, b);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addEdge(int a, int b) {
+        interferes[a].set(b);
+        interferes[b].set(a);
+    }
+
+    /**
+     * @return whether any temps were merged
+     */
+    private boolean merge() {
+        int n = temps.size();
+        parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        boolean merged = false;
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                if (tac.opc != Tac.Kind.ASSIGN) {
+                    continue;
+                }
+                int a = find(tac.op0.index);
+                int b = find(tac.op1.index);
+                if (a == b || interferes[a].get(b)) {
+                    continue;
+                }
+                boolean fixedA = temps.get(a).isOffsetFixed();
+                boolean fixedB = temps.get(b).isOffsetFixed();
+                if (fixedA && fixedB) {
+                    continue;
+                }
+                if (fixedB) {
+                    int t = a;
+                    a = b;
+                    b = t;
+                }
+                // b is merged into a
+                parent[b] = a;
+                interferes[a].or(interferes[b]);
+                for (int x = interferes[b].nextSetBit(0); x >= 0; x = interferes[b].nextSetBit(x + 1)) {
+                    interferes[x].set(a);
+                }
+                merged = true;
+            }
+        }
+        return merged;
+    }
+
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private Temp rep(Temp t) {
+        if (t == null || !temps.contains(t)) {
+            return t;
+        }
+        return temps.get(find(t.index));
+    }
+
+    /**
+     * Replace every temp by the one it was merged into, and drop the copies
+     * that became `t = t`.
+     *
+     * @return the number of copies dropped
+     */
+    private int rename() {
+        int removed = 0;
+        for (BasicBlock bb : graph) {
+            Tac next;
+            for (Tac tac = bb.tacList; tac != null; tac = next) {
+                next = tac.next;
+                tac.op0 = rep(tac.op0);
+                tac.op1 = rep(tac.op1);
+                tac.op2 = rep(tac.op2);
+                if (tac.opc == Tac.Kind.ASSIGN && tac.op0 == tac.op1) {
+                    bb.remove(tac);
+                    removed++;
+                }
+            }
+            bb.var = rep(bb.var);
+        }
+        return removed;
+    }
+}
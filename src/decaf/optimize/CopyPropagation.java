@@ -0,0 +1,75 @@
+package decaf.optimize;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Copy propagation over a `FlowGraph` in SSA form.
+ *
+ * In SSA form the destination of an `ASSIGN` holds the value of its source
+ * wherever it is read, so every use of the destination can read the source
+ * instead, and the `ASSIGN` is removed. A copy of a copy reads the source of
+ * the first one. The copies come from assignments to local variables and
+ * from the redundancies found by `GlobalValueNumbering`.
+ */
+public class CopyPropagation {
+
+    /**
+     * @return whether the graph was changed
+     */
+    public static boolean propagate(FlowGraph graph) {
+        DefUse du = new DefUse(graph);
+        int removed = 0;
+        for (BasicBlock bb : graph) {
+            Tac next;
+            for (Tac tac = bb.tacList; tac != null; tac = next) {
+                next = tac.next;
+                if (tac.opc != Tac.Kind.ASSIGN) {
+                    continue;
+                }
+                Temp copy = tac.op0;
+                Temp source = tac.op1;
+                // the copies met so far are gone, but still lead to their source
+                Tac def = du.getDef(source);
+                while (def != null && def.opc == Tac.Kind.ASSIGN) {
+                    source = def.op1;
+                    def = du.getDef(source);
+                }
+                for (Tac use : du.getUses(copy)) {
+                    replaceUse(use, copy, source);
+                }
+                for (int b : du.getEndUses(copy)) {
+                    graph.getBlock(b).var = source;
+                }
+                bb.remove(tac);
+                removed++;
+            }
+        }
+        return removed > 0;
+    }
+
+    /**
+     * Make `tac` read `to` where it reads `from`; `from` is not written by
+     * `tac`, being written only by its copy.
+     */
+    private static void replaceUse(Tac tac, Temp from, Temp to) {
+        if (tac.op0 == from) {
+            tac.op0 = to;
+        }
+        if (tac.op1 == from) {
+            tac.op1 = to;
+        }
+        if (tac.op2 == from) {
+            tac.op2 = to;
+        }
+        if (tac.args != null) {
+            for (int j = 0; j < tac.args.length; j++) {
+                if (tac.args[j] == from) {
+                    tac.args[j] = to;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package decaf.optimize;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Dead code elimination over the DU chains of an analyzed `FlowGraph` (not
+ * in SSA form).
+ *
+ * A TAC is needed if it has an effect besides writing its temp, or if a
+ * needed TAC, or the test or result at the end of a block, reads the temp
+ * it writes; definitions are followed backwards from the uses they reach by
+ * inverting the DU chains. Starting from the TACs with an effect this runs
+ * to a fixpoint, and every other TAC is removed. Unlike removing the TACs
+ * with empty DU chains over and over, this also removes temps that only feed
+ * themselves, like a counter no one reads.
+ *
+ * Calls (intrinsics included), stores and `PARM` have an effect, and so do
+ * the operations that may trap (`Traps`): an `add`, `sub` or `neg` that
+ * overflows, a division by zero and a load through a pointer that may be
+ * null are left to trap at run time, as in `ConstantPropagation`.
+ *
+ * The DU chains are kept up to date, and liveness is updated only for the
+ * temps the removed TACs refer to.
+ */
+public class DeadCodeElimination {
+
+    private FlowGraph graph;
+
+    /**
+     * Position of a use (a TAC id or a block's `endId`) -> the definitions
+     * reaching it.
+     */
+    private Map<Integer, List<Tac>> reachingDefs;
+
+    /**
+     * TAC -> its block.
+     */
+    private Map<Tac, BasicBlock> blockOf;
+
+    private Set<Tac> needed;
+
+    private Traps traps;
+
+    private DeadCodeElimination(FlowGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return the number of TACs removed
+     */
+    public static int eliminate(FlowGraph graph) {
+        DeadCodeElimination dce = new DeadCodeElimination(graph);
+        dce.invertChains();
+        dce.markNeeded();
+        return dce.sweep();
+    }
+
+    private void invertChains() {
+        traps = new Traps(new Traps.Definitions() {
+            @Override
+            public List<Tac> reaching(Temp t, Tac use) {
+                List<Tac> defs = new ArrayList<Tac>(1);
+                List<Tac> all = reachingDefs.get(use.id);
+                if (all != null) {
+                    for (Tac def : all) {
+                        if (def.def() == t) {
+                            defs.add(def);
+                        }
+                    }
+                }
+                return defs;
+            }
+        });
+        reachingDefs = new HashMap<Integer, List<Tac>>();
+        blockOf = new IdentityHashMap<Tac, BasicBlock>();
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                blockOf.put(tac, bb);
+                if (tac.def() == null) {
+                    continue;
+                }
+                for (int pos : bb.getDUChain(tac)) {
+                    List<Tac> defs = reachingDefs.get(pos);
+                    if (defs == null) {
+                        defs = new ArrayList<Tac>(1);
+                        reachingDefs.put(pos, defs);
+                    }
+                    defs.add(tac);
+                }
+            }
+        }
+    }
+
+    private void markNeeded() {
+        needed = Collections.newSetFromMap(new IdentityHashMap<Tac, Boolean>());
+        Deque<Tac> work = new ArrayDeque<Tac>();
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                if (hasEffect(tac)) {
+                    needed.add(tac);
+                    work.add(tac);
+                }
+            }
+            if (bb.var != null) {
+                markDefs(bb.endId, bb.var, work);
+            }
+        }
+        while (!work.isEmpty()) {
+            Tac tac = work.pop();
+            for (Temp use : tac.uses()) {
+                markDefs(tac.id, use, work);
+            }
+        }
+    }
+
+    /**
+     * Mark the definitions of `t` that reach the use at `pos`.
+     */
+    private void markDefs(int pos, Temp t, Deque<Tac> work) {
+        List<Tac> defs = reachingDefs.get(pos);
+        if (defs == null) {
+            return;
+        }
+        for (Tac def : defs) {
+            if (def.def() == t && needed.add(def)) {
+                work.add(def);
+            }
+        }
+    }
+
+    private int sweep() {
+        BitSet blocks = new BitSet();
+        Set<Temp> changed = new HashSet<Temp>();
+        int removed = 0;
+        for (BasicBlock bb : graph) {
+            Tac next;
+            for (Tac tac = bb.tacList; tac != null; tac = next) {
+                next = tac.next;
+                if (needed.contains(tac)) {
+                    continue;
+                }
+                bb.remove(tac);
+                blocks.set(bb.bbNum);
+                changed.add(tac.def());
+                for (Temp use : tac.uses()) {
+                    changed.add(use);
+                    List<Tac> defs = reachingDefs.get(tac.id);
+                    if (defs != null) {
+                        for (Tac def : defs) {
+                            if (def.def() == use) {
+                                blockOf.get(def).getDUChain(def).remove(tac.id);
+                            }
+                        }
+                    }
+                }
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            graph.updateLiveness(blocks, changed);
+        }
+        return removed;
+    }
+
+    private boolean hasEffect(Tac tac) {
+        if (traps.mayTrap(tac)) {
+            return true;
+        }
+        switch (tac.opc) {
+        case MUL:
+        case LAND:
+        case LOR:
+        case GTR:
+        case GEQ:
+        case EQU:
+        case NEQ:
+        case LEQ:
+        case LES:
+        case LNOT:
+        case ASSIGN:
+        case LOAD:
+        case LOAD_VTBL:
+        case LOAD_IMM4:
+        case LOAD_STR_CONST:
+            return false;
+        default:
+            return true;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package decaf.optimize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.TempIndex;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Definitions and uses of the temps of a `FlowGraph` in SSA form.
+ *
+ * Every temp has at most one defining TAC; a temp without one holds the value
+ * it had on entry to the function. The uses of a temp are the TACs that read
+ * it and the blocks that end by testing or returning it. `Tac.bbNum` of every
+ * TAC is set to the block it is in.
+ *
+ * The index is a snapshot: a pass that edits the graph keeps it up to date
+ * itself or builds a new one.
+ */
+public class DefUse {
+
+    private TempIndex temps;
+
+    private Tac[] defs;
+
+    private List<List<Tac>> uses;
+
+    private List<List<Integer>> endUses;
+
+    public DefUse(FlowGraph graph) {
+        temps = TempIndex.of(graph);
+        int n = temps.size();
+        defs = new Tac[n];
+        uses = new ArrayList<List<Tac>>(n);
+        endUses = new ArrayList<List<Integer>>(n);
+        for (int i = 0; i < n; i++) {
+            uses.add(new ArrayList<Tac>(2));
+            endUses.add(new ArrayList<Integer>(0));
+        }
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                tac.bbNum = bb.bbNum;
+                Temp def = tac.def();
+                if (def != null) {
+                    defs[def.index] = tac;
+                }
+                for (Temp use : tac.uses()) {
+                    List<Tac> us = uses.get(use.index);
+                    if (us.isEmpty() || us.get(us.size() - 1) != tac) {
+                        us.add(tac);
+                    }
+                }
+            }
+            if (bb.var != null) {
+                endUses.get(bb.var.index).add(bb.bbNum);
+            }
+        }
+    }
+
+    public TempIndex getTemps() {
+        return temps;
+    }
+
+    /**
+     * @return the TAC defining `t`, or null if `t` is not written in the
+     *         function
+     */
+    public Tac getDef(Temp t) {
+        return defs[t.index];
+    }
+
+    /**
+     * @return the TACs reading `t`, each once
+     */
+    public List<Tac> getUses(Temp t) {
+        return uses.get(t.index);
+    }
+
+    /**
+     * @return the blocks whose end tests or returns `t`
+     */
+    public List<Integer> getEndUses(Temp t) {
+        return endUses.get(t.index);
+    }
+}
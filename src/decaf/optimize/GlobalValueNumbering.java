@@ -0,0 +1,366 @@
+package decaf.optimize;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.DominatorTree;
+import decaf.dataflow.FlowGraph;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Dominator-based value numbering over a `FlowGraph` in SSA form.
+ *
+ * The blocks are visited in a preorder of the dominator tree with a scoped
+ * table of the expressions computed so far, so an expression found in the
+ * table was computed in a dominating block (or earlier in the same block),
+ * and the temp holding it can be read instead. The redundant TAC becomes an
+ * `ASSIGN` from that temp. Operands are compared by value number: a copy has
+ * the number of its source and a `LOAD_IMM4` the number of its constant.
+ * Commutative operations and the mirrored comparisons are put into one
+ * canonical form first.
+ *
+ * Loads are numbered too. An invariant load (`Tac.invariant`) is pure. Any
+ * other load also depends on the state of memory, which changes at every
+ * store and call; a block starts with the memory of its predecessor when it
+ * has only one, and with new memory otherwise.
+ *
+ * Constants, strings and vtables are not shared between TACs: loading them
+ * again is as cheap as a copy, and keeps the temps short-lived. For the same
+ * reason a value that takes one instruction is not reused across a call,
+ * around which it would have to be saved and restored; calls are tracked like
+ * memory.
+ */
+public class GlobalValueNumbering {
+
+    private FlowGraph graph;
+
+    private DefUse du;
+
+    /**
+     * `Temp.index` -> value number; a temp is numbered by its own index
+     * unless it is known to equal another temp.
+     */
+    private int[] number;
+
+    /**
+     * `Temp.index` -> the constant of a `LOAD_IMM4`, for temps loaded with
+     * one.
+     */
+    private Integer[] constant;
+
+    private Map<Expression, Entry> table;
+
+    /**
+     * Undo log of `table`: the entries replaced in the blocks being visited,
+     * null where an expression was new.
+     */
+    private List<Expression> scope;
+
+    private List<Entry> shadowed;
+
+    /**
+     * The state of memory, and the calls made so far, as numbers that change
+     * at every store and call.
+     */
+    private int memory;
+
+    private int nextMemory;
+
+    private int[] memoryAtEnd;
+
+    private int calls;
+
+    private int[] callsAtEnd;
+
+    private int eliminated;
+
+    private GlobalValueNumbering(FlowGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return whether the graph was changed
+     */
+    public static boolean number(FlowGraph graph) {
+        GlobalValueNumbering gvn = new GlobalValueNumbering(graph);
+        gvn.run();
+        return gvn.eliminated > 0;
+    }
+
+    private void run() {
+        du = new DefUse(graph);
+        int n = du.getTemps().size();
+        number = new int[n];
+        for (int i = 0; i < n; i++) {
+            number[i] = i;
+        }
+        constant = new Integer[n];
+        table = new HashMap<Expression, Entry>();
+        scope = new ArrayList<Expression>();
+        shadowed = new ArrayList<Entry>();
+        memoryAtEnd = new int[graph.size()];
+        callsAtEnd = new int[graph.size()];
+
+        DominatorTree dom = graph.getDominators();
+        int[] mark = new int[graph.size()];
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        for (int root : dom.getRoots()) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            int b = stack.pop();
+            if (b < 0) {
+                for (int i = scope.size() - 1; i >= mark[~b]; i--) {
+                    if (shadowed.get(i) == null) {
+                        table.remove(scope.get(i));
+                    } else {
+                        table.put(scope.get(i), shadowed.get(i));
+                    }
+                }
+                scope.subList(mark[~b], scope.size()).clear();
+                shadowed.subList(mark[~b], shadowed.size()).clear();
+                continue;
+            }
+            mark[b] = scope.size();
+            stack.push(~b);
+            List<Integer> preds = graph.getPredecessors(b);
+            if (preds.size() == 1) {
+                memory = memoryAtEnd[preds.get(0)]; // the idom, visited already
+                calls = callsAtEnd[preds.get(0)];
+            } else {
+                memory = newMemory();
+                calls = newMemory();
+            }
+            visitBlock(graph.getBlock(b));
+            memoryAtEnd[b] = memory;
+            callsAtEnd[b] = calls;
+            for (int child : dom.getChildren(b)) {
+                stack.push(child);
+            }
+        }
+    }
+
+    private int newMemory() {
+        return ++nextMemory;
+    }
+
+    private void visitBlock(BasicBlock bb) {
+        Tac next;
+        for (Tac tac = bb.tacList; tac != null; tac = next) {
+            next = tac.next;
+            switch (tac.opc) {
+            case STORE:
+                memory = newMemory();
+                break;
+            case DIRECT_CALL:
+            case INDIRECT_CALL:
+                memory = newMemory();
+                calls = newMemory();
+                break;
+            case LOAD_IMM4:
+                constant[tac.op0.index] = tac.op1.value;
+                break;
+            case ASSIGN:
+                number[tac.op0.index] = number[tac.op1.index];
+                constant[tac.op0.index] = constant[tac.op1.index];
+                break;
+            default:
+                Temp same = tac.opc == Tac.Kind.PHI ? sameArgument(tac) : null;
+                if (same != null) {
+                    replace(bb, tac, same);
+                    break;
+                }
+                Expression e = expressionOf(tac);
+                if (e == null) {
+                    break;
+                }
+                Entry found = table.get(e);
+                if (found != null && (found.calls == calls || isExpensive(tac))) {
+                    replace(bb, tac, found.leader);
+                } else {
+                    scope.add(e);
+                    shadowed.add(table.put(e, new Entry(tac.op0, calls)));
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return whether `tac` is worth saving around a call rather than being
+     *         computed again
+     */
+    private static boolean isExpensive(Tac tac) {
+        switch (tac.opc) {
+        case DIV:
+        case MOD:
+        case PHI:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Turn `tac` into a copy of `leader`, which holds the same value.
+     */
+    private void replace(BasicBlock bb, Tac tac, Temp leader) {
+        Temp def = tac.op0;
+        number[def.index] = number[leader.index];
+        constant[def.index] = constant[leader.index];
+        if (tac.opc == Tac.Kind.PHI) {
+            bb.remove(tac);
+            bb.insertAfterPhis(Tac.genAssign(def, leader));
+        } else {
+            tac.opc = Tac.Kind.ASSIGN;
+            tac.op1 = leader;
+            tac.op2 = null;
+            tac.invariant = false;
+        }
+        eliminated++;
+    }
+
+    /**
+     * @return the value `tac` computes, or null if it is not numbered
+     */
+    private Expression expressionOf(Tac tac) {
+        switch (tac.opc) {
+        case ADD:
+        case MUL:
+        case LAND:
+        case LOR:
+        case EQU:
+        case NEQ:
+            Object a = operand(tac.op1);
+            Object b = operand(tac.op2);
+            if (compare(a, b) > 0) {
+                return new Expression(tac.opc, b, a);
+            }
+            return new Expression(tac.opc, a, b);
+        case GTR: // a > b is b < a
+            return new Expression(Tac.Kind.LES, operand(tac.op2), operand(tac.op1));
+        case GEQ:
+            return new Expression(Tac.Kind.LEQ, operand(tac.op2), operand(tac.op1));
+        case SUB:
+        case DIV:
+        case MOD:
+        case LEQ:
+        case LES:
+            return new Expression(tac.opc, operand(tac.op1), operand(tac.op2));
+        case NEG:
+        case LNOT:
+            return new Expression(tac.opc, operand(tac.op1), null);
+        case LOAD:
+            return new Expression(tac.opc, operand(tac.op1), tac.op2.value,
+                    tac.invariant ? 0 : memory);
+        case PHI:
+            return phiExpression(tac);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * PHIs are equal if they are in the same block and have the same
+     * arguments.
+     */
+    private Expression phiExpression(Tac phi) {
+        Object[] args = new Object[phi.args.length + 1];
+        args[0] = phi.bbNum;
+        for (int j = 0; j < phi.args.length; j++) {
+            args[j + 1] = operand(phi.args[j]);
+        }
+        return new Expression(Tac.Kind.PHI, args);
+    }
+
+    /**
+     * @return the temp holding the value of all arguments of `phi` but those
+     *         reading the PHI itself, or null if they have different values
+     */
+    private Temp sameArgument(Tac phi) {
+        int same = -1;
+        for (Temp arg : phi.args) {
+            int v = number[arg.index];
+            if (arg == phi.op0 || v == same) {
+                continue;
+            }
+            if (same >= 0 || constant[arg.index] != null) {
+                return null;
+            }
+            same = v;
+        }
+        // the first temp of a number dominates every other temp of it
+        return same < 0 ? null : du.getTemps().get(same);
+    }
+
+    /**
+     * @return the value number of `t` (an `Integer`), or the constant it
+     *         holds (a `Long`)
+     */
+    private Object operand(Temp t) {
+        Integer c = constant[t.index];
+        if (c != null) {
+            return Long.valueOf(c);
+        }
+        return number[t.index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        if (a.getClass() != b.getClass()) {
+            return a instanceof Long ? 1 : -1; // constants second
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static class Entry {
+
+        /**
+         * The temp holding the value.
+         */
+        private Temp leader;
+
+        /**
+         * `calls` where it was computed.
+         */
+        private int calls;
+
+        Entry(Temp leader, int calls) {
+            this.leader = leader;
+            this.calls = calls;
+        }
+    }
+
+    private static class Expression {
+
+        private Tac.Kind opc;
+
+        private Object[] operands;
+
+        Expression(Tac.Kind opc, Object... operands) {
+            this.opc = opc;
+            this.operands = operands;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Expression)) {
+                return false;
+            }
+            Expression e = (Expression) obj;
+            return opc == e.opc && Arrays.equals(operands, e.operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return opc.hashCode() * 31 + Arrays.hashCode(operands);
+        }
+    }
+}
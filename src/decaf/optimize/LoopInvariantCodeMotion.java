@@ -0,0 +1,185 @@
+package decaf.optimize;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.Loop;
+import decaf.dataflow.LoopForest;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Loop-invariant code motion over a `FlowGraph` in SSA form.
+ *
+ * Every loop first gets a preheader: a block that all edges entering the
+ * loop from outside go through. Then, from the innermost loops outwards,
+ * TACs whose operands are all defined outside the loop are moved to the end
+ * of its preheader, where they run once instead of once per iteration.
+ * Being in SSA form, such a TAC computes the same value on every iteration,
+ * and moving it does not change what its uses read. Constants, strings and
+ * vtables stay where they are: loading them again is cheaper than keeping
+ * them in a slot across the loop.
+ *
+ * A TAC is only moved if running it where the loop may not have run it is
+ * harmless:
+ * - a load must read memory that no store or call in the loop may write; a
+ *   store only writes the same offset from its base, as fields of distinct
+ *   objects and array elements never overlap;
+ * - a TAC that may trap (a load through a pointer that may be null, a
+ *   division, or an `add`, `sub` or `neg` that may overflow) must come
+ *   before any call or store in the header, which runs whenever the
+ *   preheader does.
+ */
+public class LoopInvariantCodeMotion {
+
+    private FlowGraph graph;
+
+    private DefUse du;
+
+    private Traps traps;
+
+    private int hoisted;
+
+    private LoopInvariantCodeMotion(FlowGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return whether the graph was changed
+     */
+    public static boolean hoist(FlowGraph graph) {
+        final LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion(graph);
+        boolean changed = licm.insertPreheaders();
+        licm.du = new DefUse(graph);
+        licm.traps = new Traps(new Traps.Definitions() {
+            @Override
+            public List<Tac> reaching(Temp t, Tac use) {
+                Tac def = licm.du.getDef(t);
+                if (def == null) {
+                    return Collections.emptyList();
+                }
+                return Collections.singletonList(def);
+            }
+        });
+        for (Loop loop : graph.getLoops().getLoops()) {
+            licm.hoist(loop);
+        }
+        return changed || licm.hoisted > 0;
+    }
+
+    private boolean insertPreheaders() {
+        boolean changed = false;
+        for (Loop loop : graph.getLoops().getLoops()) {
+            List<Integer> outside = new ArrayList<Integer>();
+            for (int p : graph.getPredecessors(loop.getHeader())) {
+                if (!loop.contains(p)) {
+                    outside.add(p);
+                }
+            }
+            if (outside.size() == 1 && graph.getSuccessors(outside.get(0)).length == 1) {
+                continue;
+            }
+            graph.insertPreheader(loop.getHeader(), outside);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * @return the block all edges from outside `loop` enter it from
+     */
+    private int preheaderOf(Loop loop) {
+        for (int p : graph.getPredecessors(loop.getHeader())) {
+            if (!loop.contains(p)) {
+                return p;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private void hoist(Loop loop) {
+        BitSet storedOffsets = new BitSet();
+        boolean storesToNegative = false;
+        boolean calls = false;
+        for (int b : loop.getBlocks()) {
+            for (Tac tac = graph.getBlock(b).tacList; tac != null; tac = tac.next) {
+                if (tac.opc == Tac.Kind.STORE) {
+                    if (tac.op2.value >= 0) {
+                        storedOffsets.set(tac.op2.value);
+                    } else {
+                        storesToNegative = true;
+                    }
+                } else if (tac.opc == Tac.Kind.DIRECT_CALL || tac.opc == Tac.Kind.INDIRECT_CALL) {
+                    calls = true;
+                }
+            }
+        }
+
+        BasicBlock pre = graph.getBlock(preheaderOf(loop));
+        boolean inHeaderPrefix = true;
+        for (int b : graph.reversePostorder()) {
+            if (!loop.contains(b)) {
+                continue;
+            }
+            BasicBlock bb = graph.getBlock(b);
+            inHeaderPrefix = b == loop.getHeader();
+            Tac next;
+            for (Tac tac = bb.tacList; tac != null; tac = next) {
+                next = tac.next;
+                if (tac.opc == Tac.Kind.STORE || tac.opc == Tac.Kind.DIRECT_CALL
+                        || tac.opc == Tac.Kind.INDIRECT_CALL) {
+                    inHeaderPrefix = false;
+                }
+                if (!isInvariant(loop, tac)) {
+                    continue;
+                }
+                if (tac.opc == Tac.Kind.LOAD && !tac.invariant && (calls
+                        || (tac.op2.value >= 0 ? storedOffsets.get(tac.op2.value) : storesToNegative))) {
+                    continue;
+                }
+                if (traps.mayTrap(tac) && !inHeaderPrefix) {
+                    continue;
+                }
+                bb.remove(tac);
+                pre.append(tac);
+                tac.bbNum = pre.bbNum;
+                hoisted++;
+            }
+        }
+    }
+
+    private boolean isInvariant(Loop loop, Tac tac) {
+        switch (tac.opc) {
+        case ADD:
+        case SUB:
+        case MUL:
+        case DIV:
+        case MOD:
+        case NEG:
+        case LAND:
+        case LOR:
+        case LNOT:
+        case GTR:
+        case GEQ:
+        case EQU:
+        case NEQ:
+        case LEQ:
+        case LES:
+        case ASSIGN:
+        case LOAD:
+            for (Temp use : tac.uses()) {
+                Tac def = du.getDef(use);
+                if (def != null && loop.contains(def.bbNum)) {
+                    return false;
+                }
+            }
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package decaf.optimize;
+
+import java.io.PrintWriter;
+
+import decaf.Option;
+import decaf.dataflow.FlowGraph;
+
+/**
+ * The optimizations run on the TAC of one function before register
+ * allocation, when the compiler is given `-O`.
+ *
+ * The function is put into SSA form, optimized, and taken out of SSA form
+ * again; the analyses the back end needs are then recomputed. Each pass can
+ * be left out with `-fno-NAME`, see `Option`.
+ */
+public class Optimizer {
+
+    /**
+     * @param log
+     *            where the statistics of the passes go, with `-s`
+     */
+    public static void optimize(FlowGraph graph, Option option, PrintWriter log) {
+        SSABuilder.build(graph);
+        if (option.isPassEnabled("sccp")) {
+            ConstantPropagation.propagate(graph);
+        }
+        if (option.isPassEnabled("gvn")) {
+            GlobalValueNumbering.number(graph);
+        }
+        if (option.isPassEnabled("bce")) {
+            int eliminated = BoundsCheckElimination.eliminate(graph);
+            if (option.showStatistics()) {
+                log.println(graph.getFuncty().label.name + ": "
+                        + eliminated + " bounds checks eliminated");
+            }
+        }
+        if (option.isPassEnabled("licm")) {
+            LoopInvariantCodeMotion.hoist(graph);
+        }
+        if (option.isPassEnabled("copyprop")) {
+            CopyPropagation.propagate(graph);
+        }
+        SSADestructor.destruct(graph);
+        graph.analyze();
+        if (option.isPassEnabled("dce")) {
+            int removed = DeadCodeElimination.eliminate(graph);
+            if (option.showStatistics()) {
+                log.println(graph.getFuncty().label.name + ": "
+                        + removed + " dead TACs removed");
+            }
+        }
+        if (option.isPassEnabled("coalesce")) {
+            int removed = CopyCoalescing.coalesce(graph);
+            if (option.showStatistics()) {
+                log.println(graph.getFuncty().label.name + ": "
+                        + removed + " copies coalesced");
+            }
+        }
+    }
+}
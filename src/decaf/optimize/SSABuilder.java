@@ -0,0 +1,188 @@
+package decaf.optimize;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.DominatorTree;
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.TempIndex;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Put the TAC of a `FlowGraph` into SSA form.
+ *
+ * PHIs are placed at the iterated dominance frontiers of the blocks that
+ * define a temp, but only where the temp is live on entry (pruned SSA).
+ * Renaming then walks the dominator tree and gives every definition a fresh
+ * temp. The value a temp holds on entry to the function (a parameter, or a
+ * local read before it is written) keeps the original temp.
+ *
+ * PHIs are the leading TACs of their block, and `args[j]` is the value that
+ * flows in from the `j`-th predecessor.
+ */
+public class SSABuilder {
+
+    private FlowGraph graph;
+
+    private TempIndex temps;
+
+    /**
+     * PHI -> the original temp it merges.
+     */
+    private Map<Tac, Temp> phiVar;
+
+    /**
+     * `Temp.index` of an original temp -> its current name during renaming.
+     */
+    private Temp[] current;
+
+    /**
+     * Undo log of renaming: pairs (original temp, previous current name).
+     */
+    private List<Temp> log;
+
+    private SSABuilder(FlowGraph graph) {
+        this.graph = graph;
+    }
+
+    public static void build(FlowGraph graph) {
+        boolean changed = graph.removeEdgesAfterHalt();
+        changed |= graph.removeUnreachableBlocks();
+        changed |= graph.ensureEntryWithoutPredecessors();
+        if (changed) {
+            graph.analyze();
+        }
+        SSABuilder builder = new SSABuilder(graph);
+        builder.placePhis();
+        builder.rename();
+    }
+
+    private void placePhis() {
+        temps = graph.getTemps();
+        phiVar = new IdentityHashMap<Tac, Temp>();
+        List<List<Integer>> defSites = new ArrayList<List<Integer>>(temps.size());
+        for (int i = 0; i < temps.size(); i++) {
+            defSites.add(new ArrayList<Integer>(1));
+        }
+        for (BasicBlock bb : graph) {
+            for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+                Temp def = tac.def();
+                if (def != null) {
+                    List<Integer> sites = defSites.get(def.index);
+                    if (sites.isEmpty() || sites.get(sites.size() - 1) != bb.bbNum) {
+                        sites.add(bb.bbNum);
+                    }
+                }
+            }
+        }
+
+        DominatorTree dom = graph.getDominators();
+        int n = graph.size();
+        int[] hasPhi = new int[n];
+        int[] queued = new int[n];
+        Arrays.fill(hasPhi, -1);
+        Arrays.fill(queued, -1);
+        Deque<Integer> work = new ArrayDeque<Integer>();
+        for (int v = 0; v < temps.size(); v++) {
+            Temp var = temps.get(v);
+            for (int b : defSites.get(v)) {
+                queued[b] = v;
+                work.push(b);
+            }
+            while (!work.isEmpty()) {
+                int x = work.pop();
+                for (int y : dom.getFrontier(x)) {
+                    if (hasPhi[y] == v) {
+                        continue;
+                    }
+                    hasPhi[y] = v;
+                    BasicBlock bb = graph.getBlock(y);
+                    if (!bb.liveIn.contains(var)) {
+                        continue; // the merged value would be dead
+                    }
+                    Tac phi = Tac.genPhi(var, graph.getPredecessors(y).size());
+                    if (bb.tacList == null) {
+                        bb.tacList = phi;
+                    } else {
+                        bb.insertBefore(phi, bb.tacList);
+                    }
+                    phiVar.put(phi, var);
+                    if (queued[y] != v) {
+                        queued[y] = v;
+                        work.push(y);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rename along a preorder walk of the dominator tree; leaving a block
+     * undoes the names it introduced.
+     */
+    private void rename() {
+        current = new Temp[temps.size()];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = temps.get(i);
+        }
+        log = new ArrayList<Temp>();
+        DominatorTree dom = graph.getDominators();
+        int[] mark = new int[graph.size()];
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        for (int root : dom.getRoots()) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            int b = stack.pop();
+            if (b < 0) {
+                for (int i = log.size() - 2; i >= mark[~b]; i -= 2) {
+                    current[log.get(i).index] = log.get(i + 1);
+                }
+                log.subList(mark[~b], log.size()).clear();
+                continue;
+            }
+            mark[b] = log.size();
+            stack.push(~b);
+            renameBlock(graph.getBlock(b));
+            for (int child : dom.getChildren(b)) {
+                stack.push(child);
+            }
+        }
+    }
+
+    private void renameBlock(BasicBlock bb) {
+        for (Tac tac = bb.tacList; tac != null; tac = tac.next) {
+            if (tac.opc != Tac.Kind.PHI) {
+                for (Temp use : tac.uses()) {
+                    tac.replaceUse(use, current[use.index]);
+                }
+            }
+            Temp def = tac.def();
+            if (def != null) {
+                Temp fresh = graph.createTempI4();
+                fresh.sym = def.sym;
+                log.add(def);
+                log.add(current[def.index]);
+                current[def.index] = fresh;
+                tac.op0 = fresh;
+            }
+        }
+        if (bb.var != null) {
+            bb.var = current[bb.var.index];
+        }
+        for (int succ : graph.getSuccessors(bb.bbNum)) {
+            int j = graph.getPredecessors(succ).indexOf(bb.bbNum);
+            BasicBlock sb = graph.getBlock(succ);
+            for (Tac phi = sb.tacList; phi != null && phi.opc == Tac.Kind.PHI; phi = phi.next) {
+                phi.args[j] = current[phiVar.get(phi).index];
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package decaf.optimize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import decaf.dataflow.BasicBlock;
+import decaf.dataflow.FlowGraph;
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Take a `FlowGraph` out of SSA form.
+ *
+ * The PHIs at the head of a block are a parallel copy on each incoming
+ * edge. The copy is put at the end of the predecessor, or on a new block when
+ * the predecessor has another successor (a critical edge), and sequentialized
+ * so that no copy overwrites a value another copy of the same edge still
+ * reads. A cycle of copies is broken with one fresh temp.
+ */
+public class SSADestructor {
+
+    public static void destruct(FlowGraph graph) {
+        int n = graph.size(); // blocks added by splitting have no PHIs
+        for (int b = 0; b < n; b++) {
+            BasicBlock bb = graph.getBlock(b);
+            if (bb.tacList == null || bb.tacList.opc != Tac.Kind.PHI) {
+                continue;
+            }
+            List<Integer> preds = new ArrayList<Integer>(graph.getPredecessors(b));
+            for (int j = 0; j < preds.size(); j++) {
+                List<Temp> dsts = new ArrayList<Temp>();
+                List<Temp> srcs = new ArrayList<Temp>();
+                for (Tac phi = bb.tacList; phi != null && phi.opc == Tac.Kind.PHI; phi = phi.next) {
+                    if (phi.op0 != phi.args[j]) {
+                        dsts.add(phi.op0);
+                        srcs.add(phi.args[j]);
+                    }
+                }
+                if (dsts.isEmpty()) {
+                    continue;
+                }
+                BasicBlock at = graph.getBlock(preds.get(j));
+                if (graph.getSuccessors(at.bbNum).length > 1) {
+                    at = graph.splitEdge(at.bbNum, b);
+                }
+                sequentialize(dsts, srcs, at, graph);
+            }
+            while (bb.tacList != null && bb.tacList.opc == Tac.Kind.PHI) {
+                bb.remove(bb.tacList);
+            }
+        }
+        graph.sortBlocks();
+    }
+
+    /**
+     * Append to `at` the copies `dsts[i] = srcs[i]`, performed as if all at
+     * once.
+     */
+    private static void sequentialize(List<Temp> dsts, List<Temp> srcs, BasicBlock at,
+            FlowGraph graph) {
+        while (!dsts.isEmpty()) {
+            int ready = -1;
+            for (int i = 0; i < dsts.size() && ready < 0; i++) {
+                if (!srcs.contains(dsts.get(i))) {
+                    ready = i;
+                }
+            }
+            if (ready < 0) {
+                // every destination is still to be read: only cycles are left
+                Temp saved = graph.createTempI4();
+                Temp dst = dsts.get(0);
+                at.append(Tac.genAssign(saved, dst));
+                for (int i = 0; i < srcs.size(); i++) {
+                    if (srcs.get(i) == dst) {
+                        srcs.set(i, saved);
+                    }
+                }
+                ready = 0;
+            }
+            at.append(Tac.genAssign(dsts.remove(ready), srcs.remove(ready)));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package decaf.optimize;
+
+import java.util.List;
+
+import decaf.tac.Tac;
+import decaf.tac.Temp;
+
+/**
+ * Which TACs may trap at run time, for the passes that remove or move TACs.
+ *
+ * An `add`, `sub` or `neg` may overflow, a division may divide by zero, and
+ * a load may read through a null pointer. A load cannot trap if its base
+ * surely points to an object, a vtable or a string: `this`, a vtable or a
+ * string constant, or the vtable loaded from such an object, or the parent
+ * loaded from such a vtable. The definitions that may reach the base are
+ * found through `Definitions`, as each pass has them.
+ */
+final class Traps {
+
+    interface Definitions {
+
+        /**
+         * @return the TACs whose value of `t` may reach `use`; empty if `t`
+         *         is not written in the function
+         */
+        List<Tac> reaching(Temp t, Tac use);
+    }
+
+    private Definitions defs;
+
+    Traps(Definitions defs) {
+        this.defs = defs;
+    }
+
+    boolean mayTrap(Tac tac) {
+        switch (tac.opc) {
+        case ADD:
+        case SUB:
+        case NEG:
+        case DIV:
+        case MOD:
+            return true;
+        case LOAD:
+            return !isNonNull(tac.op1, tac);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return whether `t` surely points to an object, a vtable or a string
+     *         where `use` reads it
+     */
+    private boolean isNonNull(Temp t, Tac use) {
+        if (t.isParam && t.sym != null && t.sym.getName().equals("this")) {
+            return true;
+        }
+        List<Tac> reaching = defs.reaching(t, use);
+        if (reaching.isEmpty()) {
+            return false;
+        }
+        for (Tac def : reaching) {
+            switch (def.opc) {
+            case LOAD_VTBL:
+            case LOAD_STR_CONST:
+                break;
+            case LOAD:
+                // the vtable of an object, or the parent of a vtable
+                if (def.invariant && def.op2.value == 0
+                        && isNonNull(def.op1, def)) {
+                    break;
+                }
+                return false;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+}
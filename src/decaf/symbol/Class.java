@@ -2,11 +2,11 @@ package decaf.symbol;
 
 import java.util.Iterator;
 
-import decaf.Driver;
 import decaf.Location;
 import decaf.backend.OffsetCounter;
 import decaf.scope.ClassScope;
 import decaf.scope.GlobalScope;
+import decaf.scope.ScopeStack;
 import decaf.tac.Label;
 import decaf.tac.VTable;
 import decaf.type.ClassType;
@@ -31,6 +31,8 @@ public class Class extends Symbol {
 
 	private Label newFuncLabel;
 
+	private ScopeStack table;
+
 	public Label getNewFuncLabel() {
 		return newFuncLabel;
 	}
@@ -71,7 +73,8 @@ public class Class extends Symbol {
 		this.numVar = numVar;
 	}
 
-	public Class(String name, String parentName, Location location) {
+	public Class(String name, String parentName, Location location,
+			ScopeStack table) {
 		this.name = name;
 		this.parentName = parentName;
 		this.location = location;
@@ -80,6 +83,7 @@ public class Class extends Symbol {
 		this.numNonStaticFunc = -1;
 		this.numVar = -1;
 		this.associatedScope = new ClassScope(this);
+		this.table = table;
 	}
 
 	public void createType() {
@@ -116,7 +120,7 @@ public class Class extends Symbol {
 	}
 
 	public Class getParent() {
-		return Driver.getDriver().getTable().lookupClass(parentName);
+		return table.lookupClass(parentName);
 	}
 
 	@Override
@@ -1,11 +1,11 @@
 package decaf.symbol;
 
-import decaf.Driver;
 import decaf.Location;
 import decaf.tree.Tree.Block;
 import decaf.scope.ClassScope;
 import decaf.scope.FormalScope;
 import decaf.scope.Scope;
+import decaf.scope.ScopeStack;
 import decaf.tac.Functy;
 import decaf.type.FuncType;
 import decaf.type.Type;
@@ -55,14 +55,13 @@ public class Function extends Symbol {
 	}
 
 	public Function(boolean statik, String name, Type returnType,
-			Block node, Location location) {
+			Block node, Location location, ScopeStack table) {
 		this.name = name;
 		this.location = location;
 
 		type = new FuncType(returnType);
 		associatedScope = new FormalScope(this, node);
-		ClassScope cs = (ClassScope) Driver.getDriver().getTable()
-				.lookForScope(Scope.Kind.CLASS);
+		ClassScope cs = (ClassScope) table.lookForScope(Scope.Kind.CLASS);
 		this.statik = statik;
 		if (!statik) {
 			Variable _this = new Variable("this", cs.getOwner().getType(),
@@ -1,16 +1,16 @@
 package decaf.tac;
 
-import java.util.Set;
-import decaf.dataflow.Pair;
+import java.util.Map;
+
+import decaf.machdesc.Register;
 import decaf.utils.MiscUtils;
 
 public class Tac {
-	private static int cnt = 0;
-	
 	public enum Kind {
 		ADD, SUB, MUL, DIV, MOD, NEG, LAND, LOR, LNOT, GTR, GEQ, EQU, NEQ, LEQ,
 		LES, ASSIGN, LOAD_VTBL, INDIRECT_CALL, DIRECT_CALL, RETURN, BRANCH,
-		BEQZ, BNEZ, LOAD, STORE, LOAD_IMM4, LOAD_STR_CONST, MEMO, MARK, PARM
+		BEQZ, BNEZ, LOAD, STORE, LOAD_IMM4, LOAD_STR_CONST, MEMO, MARK, PARM,
+		PHI
 	}
 
 	public Kind opc;
@@ -29,6 +29,18 @@ public class Tac {
 
 	public Temp op2;
 
+	/**
+	 * Operands of a PHI, one per predecessor of its basic block, in the order
+	 * of `FlowGraph.getPredecessors`.
+	 */
+	public Temp[] args;
+
+	/**
+	 * For a LOAD: the word loaded is never written once its object is set
+	 * up (an array length, a vtable pointer, an entry of a vtable).
+	 */
+	public boolean invariant;
+
 	public Label label;
 
 	public VTable vt;
@@ -37,17 +49,22 @@ public class Tac {
 
 	public int bbNum;
 
-	public Set<Temp> liveOut;
+	/**
+	 * Registers holding op0, op1 and op2 at this TAC, recorded by the
+	 * register allocator; a temp may be in other registers elsewhere in the
+	 * same block.
+	 */
+	public Register reg0;
 
-	public Set<Pair> liveOutWithID;
-	
-	public Set<Temp> saves;
-	
-	private static int allocateId() {
-		++cnt;
-		return cnt;
-	}
+	public Register reg1;
 
+	public Register reg2;
+
+	/**
+	 * Values to save around a call, and the registers they are in.
+	 */
+	public Map<Temp, Register> saves;
+	
 	private Tac(Kind opc, Temp op0) {
 		this(opc, op0, null, null);
 	}
@@ -225,6 +242,161 @@ public class Tac {
 		return new Tac(Kind.PARM, src);
 	}
 
+	public static Tac genPhi(Temp dst, int nargs) {
+		Tac phi = new Tac(Kind.PHI, dst);
+		phi.args = new Temp[nargs];
+		return phi;
+	}
+
+	/**
+	 * @return the temp written by this TAC, or null if it writes none
+	 */
+	public Temp def() {
+		switch (opc) {
+		case ADD:
+		case SUB:
+		case MUL:
+		case DIV:
+		case MOD:
+		case LAND:
+		case LOR:
+		case GTR:
+		case GEQ:
+		case EQU:
+		case NEQ:
+		case LEQ:
+		case LES:
+		case NEG:
+		case LNOT:
+		case ASSIGN:
+		case INDIRECT_CALL:
+		case LOAD:
+		case LOAD_VTBL:
+		case DIRECT_CALL:
+		case LOAD_STR_CONST:
+		case LOAD_IMM4:
+		case PHI:
+			return op0; // null for calls returning void
+		default:
+			return null;
+		}
+	}
+
+	private static final Temp[] NO_TEMPS = new Temp[0];
+
+	/**
+	 * @return the temps read by this TAC, in operand order
+	 */
+	public Temp[] uses() {
+		switch (opc) {
+		case ADD:
+		case SUB:
+		case MUL:
+		case DIV:
+		case MOD:
+		case LAND:
+		case LOR:
+		case GTR:
+		case GEQ:
+		case EQU:
+		case NEQ:
+		case LEQ:
+		case LES:
+			return reads(op1, op2);
+		case NEG:
+		case LNOT:
+		case ASSIGN:
+		case INDIRECT_CALL:
+		case LOAD:
+			return new Temp[] { op1 };
+		case STORE:
+			return reads(op0, op1);
+		case BEQZ:
+		case BNEZ:
+		case PARM:
+			return new Temp[] { op0 };
+		case RETURN:
+			return op0 == null ? NO_TEMPS : new Temp[] { op0 };
+		case PHI:
+			return args;
+		default:
+			return NO_TEMPS;
+		}
+	}
+
+	/**
+	 * @return `a` and `b`, but not a constant, which the back end may put
+	 *         where a temp is read
+	 */
+	private static Temp[] reads(Temp a, Temp b) {
+		if (a.isConst) {
+			return b.isConst ? NO_TEMPS : new Temp[] { b };
+		}
+		return b.isConst ? new Temp[] { a } : new Temp[] { a, b };
+	}
+
+	/**
+	 * Make this TAC read `to` wherever it reads `from`.
+	 */
+	public void replaceUse(Temp from, Temp to) {
+		switch (opc) {
+		case ADD:
+		case SUB:
+		case MUL:
+		case DIV:
+		case MOD:
+		case LAND:
+		case LOR:
+		case GTR:
+		case GEQ:
+		case EQU:
+		case NEQ:
+		case LEQ:
+		case LES:
+			if (op1 == from) {
+				op1 = to;
+			}
+			if (op2 == from) {
+				op2 = to;
+			}
+			break;
+		case NEG:
+		case LNOT:
+		case ASSIGN:
+		case INDIRECT_CALL:
+		case LOAD:
+			if (op1 == from) {
+				op1 = to;
+			}
+			break;
+		case STORE:
+			if (op0 == from) {
+				op0 = to;
+			}
+			if (op1 == from) {
+				op1 = to;
+			}
+			break;
+		case BEQZ:
+		case BNEZ:
+		case PARM:
+		case RETURN:
+			if (op0 == from) {
+				op0 = to;
+			}
+			break;
+		case PHI:
+			for (int i = 0; i < args.length; i++) {
+				if (args[i] == from) {
+					args[i] = to;
+				}
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
 	private String binanyOpToString(String op) {
 		return op0.name + " = (" + op1.name + " " + op + " " + op2.name + ")";
 	}
@@ -317,6 +489,12 @@ public class Tac {
 			return label.name + ":";
 		case PARM:
 			return "parm " + op0.name;
+		case PHI:
+			StringBuilder sb = new StringBuilder(op0.name + " = phi(");
+			for (int i = 0; i < args.length; i++) {
+				sb.append(i == 0 ? "" : ", ").append(args[i] == null ? "?" : args[i].name);
+			}
+			return sb.append(")").toString();
 		default:
 			throw new RuntimeException("unknown opc");
 		}
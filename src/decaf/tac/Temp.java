@@ -1,8 +1,6 @@
 package decaf.tac;
 
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
 
 import decaf.machdesc.Register;
 import decaf.symbol.Variable;
@@ -28,9 +26,10 @@ public class Temp {
 
 	public Register reg;
 
-	public int lastVisitedBB = -1;
-
-	private static int tempCount = 0;
+	/**
+	 * Dense index of this temp inside its function, see `decaf.dataflow.TempIndex`.
+	 */
+	public int index = -1;
 
 	public static final Comparator<Temp> ID_COMPARATOR = new Comparator<Temp>() {
 
@@ -51,22 +50,22 @@ public class Temp {
 		this.offset = offset;
 	}
 
-	public static Temp createTempI4() {
-		int id = tempCount++;
+	/**
+	 * Temps are created through `decaf.CompilationContext`, which numbers
+	 * them.
+	 */
+	public static Temp createTempI4(int id) {
 		return new Temp(id, "_T" + id, 4, Integer.MAX_VALUE);
 	}
 
-	private static Map<Integer, Temp> constTempPool = new HashMap<Integer, Temp>();
-
+	/**
+	 * A new constant temp; `decaf.CompilationContext` shares one per value.
+	 */
 	public static Temp createConstTemp(int value) {
-		Temp temp = constTempPool.get(value);
-		if (temp == null) {
-			temp = new Temp();
-			temp.isConst = true;
-			temp.value = value;
-			temp.name = Integer.toString(value);
-			constTempPool.put(value, temp);
-		}
+		Temp temp = new Temp();
+		temp.isConst = true;
+		temp.value = value;
+		temp.name = Integer.toString(value);
 		return temp;
 	}
 
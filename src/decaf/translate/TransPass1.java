@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import decaf.CompilationContext;
 import decaf.tree.Tree;
 import decaf.backend.OffsetCounter;
 import decaf.symbol.Class;
@@ -15,12 +16,15 @@ import decaf.tac.Temp;
 public class TransPass1 extends Tree.Visitor {
 	private Translater tr;
 
+	private CompilationContext context;
+
 	private int objectSize;
 
 	private List<Variable> vars;
 
 	public TransPass1(Translater tr) {
 		this.tr = tr;
+		this.context = tr.getContext();
 		vars = new ArrayList<Variable>();
 	}
 
@@ -50,7 +54,8 @@ public class TransPass1 extends Tree.Visitor {
 			f.accept(this);
 		}
 		Collections.sort(vars, Symbol.ORDER_COMPARATOR);
-		OffsetCounter oc = OffsetCounter.VARFIELD_OFFSET_COUNTER;
+		OffsetCounter oc = context
+				.getOffsetCounter(OffsetCounter.Kind.VARFIELD);
 		Class c = classDef.symbol.getParent();
 		if (c != null) {
 			oc.set(c.getSize());
@@ -70,13 +75,14 @@ public class TransPass1 extends Tree.Visitor {
 					* OffsetCounter.POINTER_SIZE);
 		}
 		tr.createFuncty(func);
-		OffsetCounter oc = OffsetCounter.PARAMETER_OFFSET_COUNTER;
+		OffsetCounter oc = context
+				.getOffsetCounter(OffsetCounter.Kind.PARAMETER);
 		oc.reset();
 		int order;
 		if (!func.isStatik()) {
 			Variable v = (Variable) func.getAssociatedScope().lookup("this");
 			v.setOrder(0);
-			Temp t = Temp.createTempI4();
+			Temp t = context.createTempI4();
 			t.sym = v;
 			t.isParam = true;
 			v.setTemp(t);
@@ -87,7 +93,7 @@ public class TransPass1 extends Tree.Visitor {
 		}
 		for (Tree.VarDef vd : funcDef.formals) {
 			vd.symbol.setOrder(order++);
-			Temp t = Temp.createTempI4();
+			Temp t = context.createTempI4();
 			t.sym = vd.symbol;
 			t.isParam = true;
 			vd.symbol.setTemp(t);
@@ -2,6 +2,7 @@ package decaf.translate;
 
 import java.util.Stack;
 
+import decaf.CompilationContext;
 import decaf.tree.Tree;
 import decaf.backend.OffsetCounter;
 import decaf.machdesc.Intrinsic;
@@ -14,12 +15,15 @@ public class TransPass2 extends Tree.Visitor {
 
 	private Translater tr;
 
+	private CompilationContext context;
+
 	private Temp currentThis;
 
 	private Stack<Label> loopExits;
 
 	public TransPass2(Translater tr) {
 		this.tr = tr;
+		this.context = tr.getContext();
 		loopExits = new Stack<Label>();
 	}
 
@@ -52,7 +56,7 @@ public class TransPass2 extends Tree.Visitor {
 	@Override
 	public void visitVarDef(Tree.VarDef varDef) {
 		if (varDef.symbol.isLocalVar()) {
-			Temp t = Temp.createTempI4();
+			Temp t = context.createTempI4();
 			t.sym = varDef.symbol;
 			varDef.symbol.setTemp(t);
 		}
@@ -267,7 +271,7 @@ public class TransPass2 extends Tree.Visitor {
 	public void visitCallExpr(Tree.CallExpr callExpr) {
 		if (callExpr.isArrayLength) {
 			callExpr.receiver.accept(this);
-			callExpr.val = tr.genLoad(callExpr.receiver.val,
+			callExpr.val = tr.genInvariantLoad(callExpr.receiver.val,
 					-OffsetCounter.WORD_SIZE);
 		} else {
 			if (callExpr.receiver != null) {
@@ -287,8 +291,8 @@ public class TransPass2 extends Tree.Visitor {
 						callExpr.symbol.getFuncty().label, callExpr.symbol
 								.getReturnType());
 			} else {
-				Temp vt = tr.genLoad(callExpr.receiver.val, 0);
-				Temp func = tr.genLoad(vt, callExpr.symbol.getOffset());
+				Temp vt = tr.genInvariantLoad(callExpr.receiver.val, 0);
+				Temp func = tr.genInvariantLoad(vt, callExpr.symbol.getOffset());
 				callExpr.val = tr.genIndirectCall(func, callExpr.symbol
 						.getReturnType());
 			}
@@ -301,8 +305,8 @@ public class TransPass2 extends Tree.Visitor {
 		if (forLoop.init != null) {
 			forLoop.init.accept(this);
 		}
-		Label cond = Label.createLabel();
-		Label loop = Label.createLabel();
+		Label cond = context.createLabel();
+		Label loop = context.createLabel();
 		tr.genBranch(cond);
 		tr.genMark(loop);
 		if (forLoop.update != null) {
@@ -310,7 +314,7 @@ public class TransPass2 extends Tree.Visitor {
 		}
 		tr.genMark(cond);
 		forLoop.condition.accept(this);
-		Label exit = Label.createLabel();
+		Label exit = context.createLabel();
 		tr.genBeqz(forLoop.condition.val, exit);
 		loopExits.push(exit);
 		if (forLoop.loopBody != null) {
@@ -325,16 +329,16 @@ public class TransPass2 extends Tree.Visitor {
 	public void visitIf(Tree.If ifStmt) {
 		ifStmt.condition.accept(this);
 		if (ifStmt.falseBranch != null) {
-			Label falseLabel = Label.createLabel();
+			Label falseLabel = context.createLabel();
 			tr.genBeqz(ifStmt.condition.val, falseLabel);
 			ifStmt.trueBranch.accept(this);
-			Label exit = Label.createLabel();
+			Label exit = context.createLabel();
 			tr.genBranch(exit);
 			tr.genMark(falseLabel);
 			ifStmt.falseBranch.accept(this);
 			tr.genMark(exit);
 		} else if (ifStmt.trueBranch != null) {
-			Label exit = Label.createLabel();
+			Label exit = context.createLabel();
 			tr.genBeqz(ifStmt.condition.val, exit);
 			if (ifStmt.trueBranch != null) {
 				ifStmt.trueBranch.accept(this);
@@ -357,10 +361,10 @@ public class TransPass2 extends Tree.Visitor {
 
 	@Override
 	public void visitWhileLoop(Tree.WhileLoop whileLoop) {
-		Label loop = Label.createLabel();
+		Label loop = context.createLabel();
 		tr.genMark(loop);
 		whileLoop.condition.accept(this);
-		Label exit = Label.createLabel();
+		Label exit = context.createLabel();
 		tr.genBeqz(whileLoop.condition.val, exit);
 		loopExits.push(exit);
 		if (whileLoop.loopBody != null) {
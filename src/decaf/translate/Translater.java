@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import decaf.CompilationContext;
 import decaf.tree.Tree;
 import decaf.backend.OffsetCounter;
 import decaf.error.RuntimeError;
@@ -23,19 +24,23 @@ import decaf.type.BaseType;
 import decaf.type.Type;
 
 public class Translater {
+	private CompilationContext context;
+
 	private List<VTable> vtables;
 
 	private List<Functy> funcs;
 
 	private Functy currentFuncty;
 
-	public Translater() {
+	public Translater(CompilationContext context) {
+		this.context = context;
 		vtables = new ArrayList<VTable>();
 		funcs = new ArrayList<Functy>();
 	}
 
-	public static Translater translate(Tree.TopLevel tree) {
-		Translater tr = new Translater();
+	public static Translater translate(Tree.TopLevel tree,
+			CompilationContext context) {
+		Translater tr = new Translater(context);
 		TransPass1 tp1 = new TransPass1(tr);
 		tp1.visitTopLevel(tree);
 		TransPass2 tp2 = new TransPass2(tr);
@@ -75,6 +80,10 @@ public class Translater {
 		}
 	}
 
+	public CompilationContext getContext() {
+		return context;
+	}
+
 	public List<VTable> getVtables() {
 		return vtables;
 	}
@@ -86,9 +95,9 @@ public class Translater {
 	public void createFuncty(Function func) {
 		Functy functy = new Functy();
 		if (func.isMain()) {
-			functy.label = Label.createLabel("main", true);
+			functy.label = context.createLabel("main", true);
 		} else {
-			functy.label = Label.createLabel("_"
+			functy.label = context.createLabel("_"
 					+ ((ClassScope) func.getScope()).getOwner().getName() + "."
 					+ func.getName(), true);
 		}
@@ -162,91 +171,91 @@ public class Translater {
 	}
 
 	public Temp genAdd(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genAdd(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genSub(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genSub(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genMul(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genMul(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genDiv(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genDiv(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genMod(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genMod(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genNeg(Temp src) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genNeg(dst, src));
 		return dst;
 	}
 
 	public Temp genLAnd(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genLAnd(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genLOr(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genLOr(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genLNot(Temp src) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genLNot(dst, src));
 		return dst;
 	}
 
 	public Temp genGtr(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genGtr(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genGeq(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genGeq(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genEqu(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genEqu(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genNeq(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genNeq(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genLeq(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genLeq(dst, src1, src2));
 		return dst;
 	}
 
 	public Temp genLes(Temp src1, Temp src2) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genLes(dst, src1, src2));
 		return dst;
 	}
@@ -256,7 +265,7 @@ public class Translater {
 	}
 
 	public Temp genLoadVTable(VTable vtbl) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genLoadVtbl(dst, vtbl));
 		return dst;
 	}
@@ -266,7 +275,7 @@ public class Translater {
 		if (retType.equal(BaseType.VOID)) {
 			dst = null;
 		} else {
-			dst = Temp.createTempI4();
+			dst = context.createTempI4();
 		}
 		append(Tac.genIndirectCall(dst, func));
 		return dst;
@@ -277,7 +286,7 @@ public class Translater {
 		if (retType.equal(BaseType.VOID)) {
 			dst = null;
 		} else {
-			dst = Temp.createTempI4();
+			dst = context.createTempI4();
 		}
 		append(Tac.genDirectCall(dst, func));
 		return dst;
@@ -288,7 +297,7 @@ public class Translater {
 		if (intrn.type.equal(BaseType.VOID)) {
 			dst = null;
 		} else {
-			dst = Temp.createTempI4();
+			dst = context.createTempI4();
 		}
 		append(Tac.genDirectCall(dst, intrn.label));
 		return dst;
@@ -311,23 +320,34 @@ public class Translater {
 	}
 
 	public Temp genLoad(Temp base, int offset) {
-		Temp dst = Temp.createTempI4();
-		append(Tac.genLoad(dst, base, Temp.createConstTemp(offset)));
+		Temp dst = context.createTempI4();
+		append(Tac.genLoad(dst, base, context.createConstTemp(offset)));
+		return dst;
+	}
+
+	/**
+	 * Load a word that stays the same for the lifetime of its object.
+	 */
+	public Temp genInvariantLoad(Temp base, int offset) {
+		Temp dst = context.createTempI4();
+		Tac load = Tac.genLoad(dst, base, context.createConstTemp(offset));
+		load.invariant = true;
+		append(load);
 		return dst;
 	}
 
 	public void genStore(Temp src, Temp base, int offset) {
-		append(Tac.genStore(src, base, Temp.createConstTemp(offset)));
+		append(Tac.genStore(src, base, context.createConstTemp(offset)));
 	}
 
 	public Temp genLoadImm4(int imm) {
-		Temp dst = Temp.createTempI4();
-		append(Tac.genLoadImm4(dst, Temp.createConstTemp(imm)));
+		Temp dst = context.createTempI4();
+		append(Tac.genLoadImm4(dst, context.createConstTemp(imm)));
 		return dst;
 	}
 
 	public Temp genLoadStrConst(String value) {
-		Temp dst = Temp.createTempI4();
+		Temp dst = context.createTempI4();
 		append(Tac.genLoadStrConst(dst, value));
 		return dst;
 	}
@@ -345,12 +365,12 @@ public class Translater {
 	}
 
 	public void genCheckArrayIndex(Temp array, Temp index) {
-		Temp length = genLoad(array, -OffsetCounter.WORD_SIZE);
+		Temp length = genInvariantLoad(array, -OffsetCounter.WORD_SIZE);
 		Temp cond = genLes(index, length);
-		Label err = Label.createLabel();
+		Label err = context.createLabel();
 		genBeqz(cond, err);
 		cond = genLes(index, genLoadImm4(0));
-		Label exit = Label.createLabel();
+		Label exit = context.createLabel();
 		genBeqz(cond, exit);
 		genMark(err);
 		Temp msg = genLoadStrConst(RuntimeError.ARRAY_INDEX_OUT_OF_BOUND);
@@ -361,7 +381,7 @@ public class Translater {
 	}
 
 	public void genCheckNewArraySize(Temp size) {
-		Label exit = Label.createLabel();
+		Label exit = context.createLabel();
 		Temp cond = genLes(size, genLoadImm4(0));
 		genBeqz(cond, exit);
 		Temp msg = genLoadStrConst(RuntimeError.NEGATIVE_ARR_SIZE);
@@ -378,8 +398,8 @@ public class Translater {
 		genParm(size);
 		Temp obj = genIntrinsicCall(Intrinsic.ALLOCATE);
 		genStore(length, obj, 0);
-		Label loop = Label.createLabel();
-		Label exit = Label.createLabel();
+		Label loop = context.createLabel();
+		Label exit = context.createLabel();
 		Temp zero = genLoadImm4(0);
 		append(Tac.genAdd(obj, obj, size));
 		genMark(loop);
@@ -394,7 +414,7 @@ public class Translater {
 
 	public void genNewForClass(Class c) {
 		currentFuncty = new Functy();
-		currentFuncty.label = Label.createLabel(
+		currentFuncty.label = context.createLabel(
 				"_" + c.getName() + "_" + "New", true);
 		c.setNewFuncLabel(currentFuncty.label);
 		currentFuncty.paramMemo = Tac.genMemo("");
@@ -411,8 +431,8 @@ public class Translater {
 				}
 			} else {
 				Temp unit = genLoadImm4(OffsetCounter.WORD_SIZE);
-				Label loop = Label.createLabel();
-				Label exit = Label.createLabel();
+				Label loop = context.createLabel();
+				Label exit = context.createLabel();
 				newObj = genAdd(newObj, size);
 				genMark(loop);
 				genAssign(newObj, genSub(newObj, unit));
@@ -429,31 +449,31 @@ public class Translater {
 	}
 
 	public Temp genInstanceof(Temp instance, Class c) {
-		Temp dst = Temp.createTempI4();
-		Label loop = Label.createLabel();
-		Label exit = Label.createLabel();
+		Temp dst = context.createTempI4();
+		Label loop = context.createLabel();
+		Label exit = context.createLabel();
 		Temp targetVp = genLoadVTable(c.getVtable());
-		Temp vp = genLoad(instance, 0);
+		Temp vp = genInvariantLoad(instance, 0);
 		genMark(loop);
 		append(Tac.genEqu(dst, targetVp, vp));
 		genBnez(dst, exit);
-		append(Tac.genLoad(vp, vp, Temp.createConstTemp(0)));
+		append(Tac.genLoad(vp, vp, context.createConstTemp(0)));
 		genBnez(vp, loop);
-		append(Tac.genLoadImm4(dst, Temp.createConstTemp(0)));
+		append(Tac.genLoadImm4(dst, context.createConstTemp(0)));
 		genMark(exit);
 		return dst;
 	}
 
 	public void genClassCast(Temp val, Class c) {
-		Label loop = Label.createLabel();
-		Label exit = Label.createLabel();
-		Temp cond = Temp.createTempI4();
+		Label loop = context.createLabel();
+		Label exit = context.createLabel();
+		Temp cond = context.createTempI4();
 		Temp targetVp = genLoadVTable(c.getVtable());
-		Temp vp = genLoad(val, 0);
+		Temp vp = genInvariantLoad(val, 0);
 		genMark(loop);
 		append(Tac.genEqu(cond, targetVp, vp));
 		genBnez(cond, exit);
-		append(Tac.genLoad(vp, vp, Temp.createConstTemp(0)));
+		append(Tac.genLoad(vp, vp, context.createConstTemp(0)));
 		genBnez(vp, loop);
 		Temp msg = genLoadStrConst(RuntimeError.CLASS_CAST_ERROR1);
 		genParm(msg);
@@ -2,7 +2,7 @@ package decaf.typecheck;
 
 import java.util.Iterator;
 
-import decaf.Driver;
+import decaf.CompilationContext;
 import decaf.tree.Tree;
 import decaf.error.BadArrElementError;
 import decaf.error.BadInheritanceError;
@@ -26,18 +26,22 @@ import decaf.type.FuncType;
 
 public class BuildSym extends Tree.Visitor {
 
+	private CompilationContext context;
+
 	private ScopeStack table;
 
 	private void issueError(DecafError error) {
-		Driver.getDriver().issueError(error);
+		context.issueError(error);
 	}
 
-	public BuildSym(ScopeStack table) {
-		this.table = table;
+	public BuildSym(CompilationContext context) {
+		this.context = context;
+		this.table = context.getTable();
 	}
 
-	public static void buildSymbol(Tree.TopLevel tree) {
-		new BuildSym(Driver.getDriver().getTable()).visitTopLevel(tree);
+	public static void buildSymbol(Tree.TopLevel tree,
+			CompilationContext context) {
+		new BuildSym(context).visitTopLevel(tree);
 	}
 
 	// root
@@ -46,7 +50,7 @@ public class BuildSym extends Tree.Visitor {
 		program.globalScope = new GlobalScope();
 		table.open(program.globalScope);
 		for (Tree.ClassDef cd : program.classes) {
-			Class c = new Class(cd.name, cd.parent, cd.getLocation());
+			Class c = new Class(cd.name, cd.parent, cd.getLocation(), table);
 			Class earlier = table.lookupClass(cd.name);
 			if (earlier != null) {
 				issueError(new DeclConflictError(cd.getLocation(), cd.name,
@@ -75,7 +79,7 @@ public class BuildSym extends Tree.Visitor {
 
 		for (Tree.ClassDef cd : program.classes) {
 			cd.accept(this);
-			if (Driver.getDriver().getOption().getMainClassName().equals(
+			if (context.getOption().getMainClassName().equals(
 					cd.name)) {
 				program.main = cd.symbol;
 			}
@@ -86,7 +90,7 @@ public class BuildSym extends Tree.Visitor {
 		}
 
 		if (!isMainClass(program.main)) {
-			issueError(new NoMainClassError(Driver.getDriver().getOption()
+			issueError(new NoMainClassError(context.getOption()
 					.getMainClassName()));
 		}
 		table.close();
@@ -136,7 +140,8 @@ public class BuildSym extends Tree.Visitor {
 	public void visitMethodDef(Tree.MethodDef funcDef) {
 		funcDef.returnType.accept(this);
 		Function f = new Function(funcDef.statik, funcDef.name,
-				funcDef.returnType.type, funcDef.body, funcDef.getLocation());
+				funcDef.returnType.type, funcDef.body, funcDef.getLocation(),
+				table);
 		funcDef.symbol = f;
 		Symbol sym = table.lookup(funcDef.name, false);
 		if (sym != null) {
@@ -296,7 +301,7 @@ public class BuildSym extends Tree.Visitor {
 			return false;
 		}
 		table.open(c.getAssociatedScope());
-		Symbol main = table.lookup(Driver.getDriver().getOption()
+		Symbol main = table.lookup(context.getOption()
 				.getMainFuncName(), false);
 		if (main == null || !main.isFunction()) {
 			return false;
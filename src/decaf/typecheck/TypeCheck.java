@@ -4,7 +4,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Stack;
 
-import decaf.Driver;
+import decaf.CompilationContext;
 import decaf.Location;
 import decaf.tree.Tree;
 import decaf.error.BadArgCountError;
@@ -45,19 +45,23 @@ import decaf.type.*;
 
 public class TypeCheck extends Tree.Visitor {
 
+	private CompilationContext context;
+
 	private ScopeStack table;
 
 	private Stack<Tree> breaks;
 
 	private Function currentFunction;
 
-	public TypeCheck(ScopeStack table) {
-		this.table = table;
+	public TypeCheck(CompilationContext context) {
+		this.context = context;
+		this.table = context.getTable();
 		breaks = new Stack<Tree>();
 	}
 
-	public static void checkType(Tree.TopLevel tree) {
-		new TypeCheck(Driver.getDriver().getTable()).visitTopLevel(tree);
+	public static void checkType(Tree.TopLevel tree,
+			CompilationContext context) {
+		new TypeCheck(context).visitTopLevel(tree);
 	}
 
 	@Override
@@ -573,7 +577,7 @@ public class TypeCheck extends Tree.Visitor {
 	}
 
 	private void issueError(DecafError error) {
-		Driver.getDriver().issueError(error);
+		context.issueError(error);
 	}
 
 	private Type checkBinaryOp(Tree.Expr left, Tree.Expr right, int op, Location location) {
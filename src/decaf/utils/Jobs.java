@@ -0,0 +1,56 @@
+package decaf.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent jobs, such as one per function, and returns their
+ * results in the order of the jobs.
+ *
+ * With one thread the jobs run in turn on the caller's thread; with more,
+ * on a fork-join pool. The jobs must not depend on each other, so that the
+ * results are the same either way.
+ */
+public final class Jobs {
+
+	public static <T> List<T> run(List<Callable<T>> jobs, int threads) {
+		List<T> results = new ArrayList<T>(jobs.size());
+		if (threads <= 1) {
+			for (Callable<T> job : jobs) {
+				try {
+					results.add(job.call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return results;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (Future<T> result : pool.invokeAll(jobs)) {
+				results.add(result.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+}